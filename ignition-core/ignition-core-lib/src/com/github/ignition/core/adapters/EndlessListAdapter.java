@@ -26,6 +26,9 @@ import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 
+import com.github.ignition.support.images.remote.RemoteImageLoader;
+import com.github.ignition.support.images.remote.RemoteImageLoaderJob;
+
 public abstract class EndlessListAdapter<T> extends BaseAdapter {
 
     private boolean isLoadingData;
@@ -36,6 +39,11 @@ public abstract class EndlessListAdapter<T> extends BaseAdapter {
 
     private AbsListView listView;
 
+    private RemoteImageLoader prefetchLoader;
+    private int prefetchDistance;
+    // the last position whose image has been prefetched
+    private int prefetchedUpTo = -1;
+
     public EndlessListAdapter(ListActivity activity, int progressItemLayoutResId) {
         this(activity, activity.getListView(), progressItemLayoutResId);
     }
@@ -58,6 +66,35 @@ public abstract class EndlessListAdapter<T> extends BaseAdapter {
         return progressView;
     }
 
+    /**
+     * Enables prefetching of the images of the items just below the ones being shown, so they can
+     * be displayed right away when scrolled to. For this to work, you must also override
+     * {@link #getImageUrl(int)}.
+     * 
+     * @param imageLoader
+     *            the image loader used to show the item images, or null to disable prefetching
+     * @param numPositions
+     *            the number of positions ahead of the one being shown to prefetch
+     * @see RemoteImageLoader#prefetch(java.util.Collection, int, int)
+     */
+    public void setImagePrefetching(RemoteImageLoader imageLoader, int numPositions) {
+        this.prefetchLoader = imageLoader;
+        this.prefetchDistance = numPositions;
+    }
+
+    /**
+     * Override this to return the URL of the image shown for the item at the given position, if
+     * any. This is used to prefetch images when {@link #setImagePrefetching} is enabled. The
+     * default implementation returns null.
+     * 
+     * @param position
+     *            the item position
+     * @return the image URL, or null if the item has no image
+     */
+    protected String getImageUrl(int position) {
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -153,7 +190,31 @@ public abstract class EndlessListAdapter<T> extends BaseAdapter {
             return progressView;
         }
 
-        return doGetView(position, convertView, parent);
+        View view = doGetView(position, convertView, parent);
+
+        if (prefetchLoader != null && prefetchDistance > 0) {
+            prefetchImages(position);
+        }
+
+        return view;
+    }
+
+    private void prefetchImages(int position) {
+        int last = Math.min(position + prefetchDistance, getItemCount() - 1);
+        int first = Math.max(position + 1, prefetchedUpTo + 1);
+        if (first > last) {
+            return;
+        }
+        List<String> imageUrls = new ArrayList<String>(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            String imageUrl = getImageUrl(i);
+            if (imageUrl != null) {
+                imageUrls.add(imageUrl);
+            }
+        }
+        prefetchLoader.prefetch(imageUrls, RemoteImageLoaderJob.NO_SCALING,
+                RemoteImageLoaderJob.NO_SCALING);
+        prefetchedUpTo = last;
     }
 
     protected abstract View doGetView(int position, View convertView, ViewGroup parent);
@@ -193,6 +254,7 @@ public abstract class EndlessListAdapter<T> extends BaseAdapter {
 
     public void clear() {
         data.clear();
+        prefetchedUpTo = -1;
         notifyDataSetChanged();
     }
 
@@ -15,6 +15,7 @@
 
 package com.github.ignition.core.adapters;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import android.content.Context;
@@ -28,21 +29,37 @@ import android.widget.Gallery;
 import android.widget.Gallery.LayoutParams;
 
 import com.github.ignition.core.widgets.RemoteImageView;
+import com.github.ignition.support.images.remote.RemoteImageLoader;
+import com.github.ignition.support.images.remote.RemoteImageLoaderJob;
 
 /**
  * Can be used as an adapter for an Android {@link Gallery} view. This adapter loads the images to
  * be shown from the web using embedded {@link RemoteImageView}s.
+ * <p>
+ * Since a Gallery doesn't recycle its item views, this adapter keeps a bounded pool of the views it
+ * created. Views the gallery has let go of are re-bound to new positions, those farthest from the
+ * requested position first, and a view that still shows the requested image is handed back as is.
+ * </p>
  * 
  * @author Matthias Kaeppler
  */
 public class RemoteImageGalleryAdapter extends BaseAdapter {
 
+    private static final int DEFAULT_VIEW_POOL_SIZE = 6;
+
     private List<String> imageUrls;
 
     private Context context;
 
     private Drawable progressDrawable, errorDrawable;
 
+    private int prefetchDistance;
+    // the range of positions whose images have been prefetched
+    private int prefetchedFrom = -1, prefetchedUpTo = -1;
+
+    private int viewPoolSize = DEFAULT_VIEW_POOL_SIZE;
+    private final List<View> viewPool = new ArrayList<View>(DEFAULT_VIEW_POOL_SIZE);
+
     public RemoteImageGalleryAdapter(Context context) {
         this(context, null, null, null);
     }
@@ -92,6 +109,12 @@ public class RemoteImageGalleryAdapter extends BaseAdapter {
 
     public void setImageUrls(List<String> imageUrls) {
         this.imageUrls = imageUrls;
+        this.prefetchedFrom = -1;
+        this.prefetchedUpTo = -1;
+        // pooled views still show images from the old list, so never hand them back as they are
+        for (int i = 0; i < viewPool.size(); i++) {
+            ((ViewHolder) viewPool.get(i).getTag()).position = -1;
+        }
     }
 
     public List<String> getImageUrls() {
@@ -114,8 +137,43 @@ public class RemoteImageGalleryAdapter extends BaseAdapter {
         return errorDrawable;
     }
 
-    // TODO: both convertView and ViewHolder are pointless at the moment, since there's a framework
-    // bug which causes views to not be cached in a Gallery widget:
+    /**
+     * Sets how many images on either side of the current gallery position should be prefetched,
+     * so they can be shown right away when the user flips to them. Disabled (0) by default.
+     * 
+     * @param numPositions
+     *            the number of positions ahead of and behind the current one to prefetch
+     * @see RemoteImageLoader#prefetch(java.util.Collection, int, int)
+     */
+    public void setPrefetchDistance(int numPositions) {
+        this.prefetchDistance = numPositions;
+    }
+
+    public int getPrefetchDistance() {
+        return prefetchDistance;
+    }
+
+    /**
+     * Sets how many item views this adapter keeps around for re-use. This should be at least the
+     * number of items the gallery shows at once; more lets the user flip back to images without
+     * having to re-bind their views. Defaults to 6.
+     * 
+     * @param numViews
+     *            the maximum number of pooled views
+     */
+    public void setViewPoolSize(int numViews) {
+        this.viewPoolSize = numViews;
+        while (viewPool.size() > numViews) {
+            viewPool.remove(viewPool.size() - 1);
+        }
+    }
+
+    public int getViewPoolSize() {
+        return viewPoolSize;
+    }
+
+    // convertView is always null at the moment, since there's a framework bug which causes views to
+    // not be cached in a Gallery widget, which is why we pool views ourselves:
     // http://code.google.com/p/android/issues/detail?id=3376
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
@@ -125,6 +183,10 @@ public class RemoteImageGalleryAdapter extends BaseAdapter {
         ViewHolder viewHolder = null;
         RemoteImageView remoteImageView = null;
 
+        if (convertView == null) {
+            convertView = getPooledView(position);
+        }
+
         if (convertView == null) {
             // create the image view
             remoteImageView = new RemoteImageView(context, null, progressDrawable, errorDrawable,
@@ -145,22 +207,84 @@ public class RemoteImageGalleryAdapter extends BaseAdapter {
             viewHolder = new ViewHolder();
             viewHolder.webImageView = remoteImageView;
             convertView.setTag(viewHolder);
+            if (viewPool.size() < viewPoolSize) {
+                viewPool.add(convertView);
+            }
         } else {
             viewHolder = (ViewHolder) convertView.getTag();
             remoteImageView = viewHolder.webImageView;
         }
 
-        // calling reset is important to prevent old images from displaying in a recycled view.
-        remoteImageView.reset();
+        if (viewHolder.position != position || !remoteImageView.isLoaded()
+                || !imageUrl.equals(remoteImageView.getImageUrl())) {
+            // calling reset is important to prevent old images from displaying in a recycled view.
+            remoteImageView.reset();
 
-        remoteImageView.setImageUrl(imageUrl);
-        remoteImageView.loadImage();
+            remoteImageView.setImageUrl(imageUrl);
+            remoteImageView.loadImage();
+        }
+        viewHolder.position = position;
+
+        if (prefetchDistance > 0) {
+            prefetch(remoteImageView.getImageLoader(), position);
+        }
 
         onGetView(position, remoteImageView, (ViewGroup) convertView, parent);
 
         return convertView;
     }
 
+    /**
+     * Returns the pooled view that isn't in the gallery anymore and was last bound to the given
+     * position, or else the one farthest away from it, or null if all pooled views are in use.
+     */
+    private View getPooledView(int position) {
+        View farthestView = null;
+        int farthestDistance = -1;
+        for (int i = 0; i < viewPool.size(); i++) {
+            View view = viewPool.get(i);
+            if (view.getParent() != null) {
+                // still shown by the gallery
+                continue;
+            }
+            int viewPosition = ((ViewHolder) view.getTag()).position;
+            if (viewPosition == position) {
+                return view;
+            }
+            int distance = viewPosition < 0 ? Integer.MAX_VALUE : Math.abs(viewPosition - position);
+            if (distance > farthestDistance) {
+                farthestView = view;
+                farthestDistance = distance;
+            }
+        }
+        return farthestView;
+    }
+
+    private void prefetch(RemoteImageLoader imageLoader, int position) {
+        int first = Math.max(position - prefetchDistance, 0);
+        int last = Math.min(position + prefetchDistance, imageUrls.size() - 1);
+        if (prefetchedUpTo < first - 1 || prefetchedFrom > last + 1) {
+            // flung past what was prefetched, so start over from here
+            prefetchedFrom = prefetchedUpTo = position;
+        }
+
+        // the loader runs the most recent prefetch first, so go backwards first
+        if (first < prefetchedFrom) {
+            List<String> behind = new ArrayList<String>(prefetchedFrom - first);
+            for (int i = prefetchedFrom - 1; i >= first; i--) {
+                behind.add(imageUrls.get(i));
+            }
+            imageLoader.prefetch(behind, RemoteImageLoaderJob.NO_SCALING,
+                    RemoteImageLoaderJob.NO_SCALING);
+            prefetchedFrom = first;
+        }
+        if (last > prefetchedUpTo) {
+            imageLoader.prefetch(new ArrayList<String>(imageUrls.subList(prefetchedUpTo + 1,
+                    last + 1)), RemoteImageLoaderJob.NO_SCALING, RemoteImageLoaderJob.NO_SCALING);
+            prefetchedUpTo = last;
+        }
+    }
+
     /**
      * Override this to configure the views that are rendered for each gallery element. The default
      * implementation does nothing.
@@ -182,5 +306,7 @@ public class RemoteImageGalleryAdapter extends BaseAdapter {
 
     private static final class ViewHolder {
         private RemoteImageView webImageView;
+        // the position the view was last bound to, or -1
+        private int position = -1;
     }
 }
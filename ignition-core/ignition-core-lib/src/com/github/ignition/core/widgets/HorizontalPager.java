@@ -35,13 +35,15 @@ package com.github.ignition.core.widgets;
  */
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collections;
 
 import android.app.Activity;
 import android.content.Context;
+import android.database.DataSetObserver;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
@@ -51,10 +53,13 @@ import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.widget.Adapter;
 import android.widget.Scroller;
 
 import com.github.ignition.core.Ignition;
 import com.github.ignition.core.R;
+import com.github.ignition.support.images.remote.RemoteImageLoader;
+import com.github.ignition.support.images.remote.RemoteImageLoaderJob;
 
 /**
  * User: jeanguy@gmail.com Date: Aug 8, 2010
@@ -62,6 +67,8 @@ import com.github.ignition.core.R;
 public class HorizontalPager extends ViewGroup {
     private static final int INVALID_SCREEN = -1;
     public static final int SPEC_UNDEFINED = -1;
+    private static final int DEFAULT_OFFSCREEN_PAGE_LIMIT = 1;
+    private static final int DEFAULT_WARMUP_BUDGET = 4;
 
     /**
      * The velocity at which a fling gesture will cause us to snap to the next screen
@@ -93,7 +100,30 @@ public class HorizontalPager extends ViewGroup {
 
     private boolean mAllowLongPress;
 
-    private Set<OnScrollListener> mListeners = new HashSet<OnScrollListener>();
+    // a list rather than a set so notifying listeners on each frame doesn't allocate an iterator
+    private ArrayList<OnScrollListener> mListeners = new ArrayList<OnScrollListener>();
+    // the scroll position listeners were last notified of
+    private int mLastNotifiedScrollX = Integer.MIN_VALUE;
+
+    private Adapter mAdapter;
+    private final DataSetObserver mDataSetObserver = new PagerDataSetObserver();
+    // the number of pages on either side of the current one that exist as child views
+    private int mOffscreenPageLimit = DEFAULT_OFFSCREEN_PAGE_LIMIT;
+    // the page shown by the first child view; always 0 unless pages come from an adapter
+    private int mFirstWindowPage;
+    private final ArrayList<View> mRecycledPages = new ArrayList<View>();
+
+    // the number of images on adjacent pages to prefetch once the pager is idle
+    private int mWarmupBudget = DEFAULT_WARMUP_BUDGET;
+    private boolean mWarmupScheduled;
+    private final MessageQueue.IdleHandler mWarmupHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mWarmupScheduled = false;
+            warmUpAdjacentPages();
+            return false;
+        }
+    };
 
     /**
      * Used to inflate the Workspace from XML.
@@ -160,9 +190,257 @@ public class HorizontalPager extends ViewGroup {
      * @param currentPage
      */
     public void setCurrentPage(int currentPage) {
-        mCurrentPage = Math.max(0, Math.min(currentPage, getChildCount()));
+        mCurrentPage = Math.max(0, Math.min(currentPage, getPageCount() - 1));
+        populate(mCurrentPage);
         scrollTo(getScrollXForPage(mCurrentPage), 0);
         invalidate();
+        scheduleWarmup();
+    }
+
+    /**
+     * Returns the total number of pages; if the pages come from an adapter, that's its item count,
+     * not the number of pages that currently exist as child views.
+     * 
+     * @return the number of pages
+     */
+    public int getPageCount() {
+        return mAdapter != null ? mAdapter.getCount() : getChildCount();
+    }
+
+    /**
+     * Lets the given adapter supply the pages, instead of adding every page as a child view up
+     * front. Only the current page and the pages within the offscreen page limit on either side of
+     * it exist as child views; pages leaving that window are passed back to the adapter as convert
+     * views for the pages entering it. Any child views added before are removed.
+     * 
+     * @param adapter
+     *            the adapter supplying the pages, or null to go back to adding pages as child views
+     * @see #setOffscreenPageLimit(int)
+     */
+    public void setAdapter(Adapter adapter) {
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mDataSetObserver);
+        }
+        mAdapter = adapter;
+        removeAllViews();
+        mRecycledPages.clear();
+        mFirstWindowPage = 0;
+        if (adapter != null) {
+            adapter.registerDataSetObserver(mDataSetObserver);
+            mCurrentPage = Math.max(0, Math.min(mCurrentPage, adapter.getCount() - 1));
+            populate(mCurrentPage);
+        }
+        updatePagerControl();
+        scrollTo(getScrollXForPage(mCurrentPage), 0);
+        scheduleWarmup();
+    }
+
+    public Adapter getAdapter() {
+        return mAdapter;
+    }
+
+    /**
+     * Sets how many pages on either side of the current page are kept as child views when the pages
+     * come from an adapter. Defaults to 1, which is also the minimum, since the neighboring pages
+     * must be there to be scrolled in.
+     * 
+     * @param limit
+     *            the number of offscreen pages to keep on either side of the current page
+     */
+    public void setOffscreenPageLimit(int limit) {
+        mOffscreenPageLimit = Math.max(DEFAULT_OFFSCREEN_PAGE_LIMIT, limit);
+        populate(mCurrentPage);
+    }
+
+    public int getOffscreenPageLimit() {
+        return mOffscreenPageLimit;
+    }
+
+    /**
+     * Returns the child view showing the given page, or null if the page doesn't exist or isn't
+     * within the window of pages backed by child views.
+     */
+    private View getPageView(int page) {
+        final int index = page - mFirstWindowPage;
+        if (index < 0 || index >= getChildCount()) {
+            return null;
+        }
+        return getChildAt(index);
+    }
+
+    /**
+     * Moves the window of adapter pages backed by child views so it's centered on the given page.
+     * Pages leaving the window are recycled, and only the pages entering it are bound.
+     */
+    private void populate(int centerPage) {
+        if (mAdapter == null) {
+            return;
+        }
+        final int first = Math.max(0, centerPage - mOffscreenPageLimit);
+        final int last = Math.min(mAdapter.getCount() - 1, centerPage + mOffscreenPageLimit);
+
+        while (getChildCount() > 0 && (mFirstWindowPage < first || mFirstWindowPage > last)) {
+            recyclePage(0);
+            mFirstWindowPage++;
+        }
+        while (getChildCount() > 0 && mFirstWindowPage + getChildCount() - 1 > last) {
+            recyclePage(getChildCount() - 1);
+        }
+        if (getChildCount() == 0) {
+            mFirstWindowPage = first;
+        }
+
+        while (mFirstWindowPage > first) {
+            mFirstWindowPage--;
+            addView(obtainPage(mFirstWindowPage), 0);
+        }
+        while (mFirstWindowPage + getChildCount() - 1 < last) {
+            addView(obtainPage(mFirstWindowPage + getChildCount()));
+        }
+    }
+
+    private void recyclePage(int index) {
+        final View page = getChildAt(index);
+        removeViewAt(index);
+        // with several view types, we couldn't tell which recycled page fits which position
+        if (mAdapter.getViewTypeCount() == 1
+                && mRecycledPages.size() < 2 * mOffscreenPageLimit + 1) {
+            mRecycledPages.add(page);
+        }
+    }
+
+    private View obtainPage(int page) {
+        View convertView = null;
+        if (!mRecycledPages.isEmpty()) {
+            convertView = mRecycledPages.remove(mRecycledPages.size() - 1);
+        }
+        return mAdapter.getView(page, convertView, this);
+    }
+
+    /**
+     * Sets how many images on the pages next to the current one may be prefetched once a scroll
+     * has settled and the UI thread has gone idle, so flipping to those pages shows their images
+     * right away instead of progress spinners. Images are found by looking for
+     * {@link RemoteImageView}s and {@link RemoteImageLightView}s that haven't loaded yet. Defaults
+     * to 4; 0 disables warming up adjacent pages.
+     * 
+     * @param numImages
+     *            the maximum number of images to prefetch each time the pager comes to rest
+     */
+    public void setWarmupBudget(int numImages) {
+        mWarmupBudget = numImages;
+    }
+
+    public int getWarmupBudget() {
+        return mWarmupBudget;
+    }
+
+    private void scheduleWarmup() {
+        if (mWarmupBudget > 0 && !mWarmupScheduled) {
+            mWarmupScheduled = true;
+            Looper.myQueue().addIdleHandler(mWarmupHandler);
+        }
+    }
+
+    /**
+     * Prefetches the images on the pages next to the current one, nearest pages first and the next page before the previous one, until the
+     * warmup budget is used up.
+     */
+    private void warmUpAdjacentPages() {
+        if (mTouchState != TOUCH_STATE_REST || !mScroller.isFinished()) {
+            // the user is already moving on; we'll get another chance once the pager settles
+            return;
+        }
+        int budget = mWarmupBudget;
+        for (int distance = 1; distance <= mOffscreenPageLimit && budget > 0; distance++) {
+            budget = warmUpPage(mCurrentPage + distance, budget);
+            if (budget > 0) {
+                budget = warmUpPage(mCurrentPage - distance, budget);
+            }
+        }
+    }
+
+    private int warmUpPage(int page, int budget) {
+        final View pageView = getPageView(page);
+        if (pageView == null) {
+            return budget;
+        }
+        return warmUpImages(pageView, budget);
+    }
+
+    private int warmUpImages(View view, int budget) {
+        if (view instanceof RemoteImageView) {
+            RemoteImageView imageView = (RemoteImageView) view;
+            if (!imageView.isLoaded() && imageView.getImageUrl() != null) {
+                prefetchImage(imageView.getImageLoader(), imageView.getImageUrl(), imageView);
+                budget--;
+            }
+        } else if (view instanceof RemoteImageLightView) {
+            RemoteImageLightView imageView = (RemoteImageLightView) view;
+            if (!imageView.isLoaded() && imageView.getImageUrl() != null) {
+                prefetchImage(imageView.getImageLoader(), imageView.getImageUrl(), imageView);
+                budget--;
+            }
+        } else if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            final int count = group.getChildCount();
+            for (int i = 0; i < count && budget > 0; i++) {
+                budget = warmUpImages(group.getChildAt(i), budget);
+            }
+        }
+        return budget;
+    }
+
+    private void prefetchImage(RemoteImageLoader imageLoader, String imageUrl, View imageView) {
+        int width = imageView.getWidth();
+        int height = imageView.getHeight();
+        if (width <= 0 || height <= 0) {
+            // the page hasn't been laid out yet; its images can't be larger than the pager
+            width = pageWidth > 0 ? pageWidth : getWidth();
+            height = getHeight();
+            if (width <= 0 || height <= 0) {
+                width = height = RemoteImageLoaderJob.NO_SCALING;
+            }
+        }
+        // runs at prefetch priority, and is skipped if the image is cached or already loading
+        imageLoader.prefetch(Collections.singletonList(imageUrl), width, height);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mWarmupScheduled) {
+            Looper.myQueue().removeIdleHandler(mWarmupHandler);
+            mWarmupScheduled = false;
+        }
+    }
+
+    private void updatePagerControl() {
+        if (pagerControl != null) {
+            pagerControl.setNumPages(getPageCount());
+        }
+    }
+
+    private class PagerDataSetObserver extends DataSetObserver {
+        @Override
+        public void onChanged() {
+            // any page may have changed, so re-bind all of them
+            while (getChildCount() > 0) {
+                recyclePage(getChildCount() - 1);
+            }
+            final int currentPage = Math.max(0, Math.min(mCurrentPage, getPageCount() - 1));
+            if (currentPage != mCurrentPage) {
+                mCurrentPage = currentPage;
+                scrollTo(getScrollXForPage(mCurrentPage), 0);
+            }
+            populate(mCurrentPage);
+            updatePagerControl();
+        }
+
+        @Override
+        public void onInvalidated() {
+            onChanged();
+        }
     }
 
     public int getPageWidth() {
@@ -193,6 +471,7 @@ public class HorizontalPager extends ViewGroup {
             mCurrentPage = mNextPage;
             mNextPage = INVALID_SCREEN;
             clearChildrenCache();
+            scheduleWarmup();
         }
     }
 
@@ -205,17 +484,44 @@ public class HorizontalPager extends ViewGroup {
         // the drawing dispatch by drawing only what we know needs to be drawn.
 
         final long drawingTime = getDrawingTime();
-        // todo be smarter about which children need drawing
         final int count = getChildCount();
-        for (int i = 0; i < count; i++) {
-            drawChild(canvas, getChildAt(i), drawingTime);
+        if (pageWidth <= 0) {
+            // not measured yet, so we can't tell which pages are visible
+            for (int i = 0; i < count; i++) {
+                drawChild(canvas, getChildAt(i), drawingTime);
+            }
+        } else {
+            // only draw the pages that overlap the visible area, i.e. the current page, plus its
+            // neighbors while scrolling or if pages are narrower than the pager
+            final int left = getScrollX();
+            final int right = left + getWidth();
+            for (int i = 0; i < count; i++) {
+                final View child = getChildAt(i);
+                if (child.getVisibility() != View.GONE && child.getRight() > left
+                        && child.getLeft() < right) {
+                    drawChild(canvas, child, drawingTime);
+                }
+            }
         }
 
-        for (OnScrollListener mListener : mListeners) {
-            int adjustedScrollX = getScrollX() + pageWidthPadding();
-            mListener.onScroll(adjustedScrollX);
-            if (adjustedScrollX % pageWidth == 0) {
-                mListener.onViewScrollFinished(adjustedScrollX / pageWidth);
+        notifyScrollListeners();
+    }
+
+    private void notifyScrollListeners() {
+        final int adjustedScrollX = getScrollX() + pageWidthPadding();
+        if (adjustedScrollX == mLastNotifiedScrollX || pageWidth <= 0) {
+            // redrawn without having scrolled, e.g. because a page's content changed
+            return;
+        }
+        mLastNotifiedScrollX = adjustedScrollX;
+
+        final boolean settled = adjustedScrollX % pageWidth == 0;
+        final int count = mListeners.size();
+        for (int i = 0; i < count; i++) {
+            final OnScrollListener listener = mListeners.get(i);
+            listener.onScroll(adjustedScrollX);
+            if (settled) {
+                listener.onViewScrollFinished(adjustedScrollX / pageWidth);
             }
         }
     }
@@ -249,9 +555,9 @@ public class HorizontalPager extends ViewGroup {
             pagerControl = (HorizontalPagerControl) activity
                     .findViewById(R.id.ign_horizontal_pager_control);
             if (pagerControl != null) {
-                int childCount = getChildCount();
-                if (childCount > 0) {
-                    pagerControl.setNumPages(childCount);
+                int pageCount = getPageCount();
+                if (pageCount > 0) {
+                    pagerControl.setNumPages(pageCount);
                 }
                 addOnScrollListener(new OnScrollListener());
             } else {
@@ -264,7 +570,7 @@ public class HorizontalPager extends ViewGroup {
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         attachPagerControl();
 
-        int childLeft = 0;
+        int childLeft = mFirstWindowPage * pageWidth;
 
         final int count = getChildCount();
         for (int i = 0; i < count; i++) {
@@ -279,7 +585,7 @@ public class HorizontalPager extends ViewGroup {
 
     @Override
     public boolean requestChildRectangleOnScreen(View child, Rect rectangle, boolean immediate) {
-        int screen = indexOfChild(child);
+        int screen = mFirstWindowPage + indexOfChild(child);
         if (screen != mCurrentPage || !mScroller.isFinished()) {
             return true;
         }
@@ -294,7 +600,10 @@ public class HorizontalPager extends ViewGroup {
         } else {
             focusableScreen = mCurrentPage;
         }
-        getChildAt(focusableScreen).requestFocus(direction, previouslyFocusedRect);
+        View focusablePage = getPageView(focusableScreen);
+        if (focusablePage != null) {
+            focusablePage.requestFocus(direction, previouslyFocusedRect);
+        }
         return false;
     }
 
@@ -306,7 +615,7 @@ public class HorizontalPager extends ViewGroup {
                 return true;
             }
         } else if (direction == View.FOCUS_RIGHT) {
-            if (getCurrentPage() < getChildCount() - 1) {
+            if (getCurrentPage() < getPageCount() - 1) {
                 snapToPage(getCurrentPage() + 1);
                 return true;
             }
@@ -316,15 +625,18 @@ public class HorizontalPager extends ViewGroup {
 
     @Override
     public void addFocusables(ArrayList<View> views, int direction) {
-        getChildAt(mCurrentPage).addFocusables(views, direction);
+        View currentPage = getPageView(mCurrentPage);
+        if (currentPage != null) {
+            currentPage.addFocusables(views, direction);
+        }
+        View adjacentPage = null;
         if (direction == View.FOCUS_LEFT) {
-            if (mCurrentPage > 0) {
-                getChildAt(mCurrentPage - 1).addFocusables(views, direction);
-            }
+            adjacentPage = getPageView(mCurrentPage - 1);
         } else if (direction == View.FOCUS_RIGHT) {
-            if (mCurrentPage < getChildCount() - 1) {
-                getChildAt(mCurrentPage + 1).addFocusables(views, direction);
-            }
+            adjacentPage = getPageView(mCurrentPage + 1);
+        }
+        if (adjacentPage != null) {
+            adjacentPage.addFocusables(views, direction);
         }
     }
 
@@ -411,8 +723,10 @@ public class HorizontalPager extends ViewGroup {
                 // Try canceling the long press. It could also have been scheduled
                 // by a distant descendant, so use the mAllowLongPress flag to block
                 // everything
-                final View currentScreen = getChildAt(mCurrentPage);
-                currentScreen.cancelLongPress();
+                final View currentScreen = getPageView(mCurrentPage);
+                if (currentScreen != null) {
+                    currentScreen.cancelLongPress();
+                }
             }
         }
     }
@@ -459,7 +773,7 @@ public class HorizontalPager extends ViewGroup {
                 mLastMotionX = x;
 
                 // Apply friction to scrolling past boundaries.
-                if (getScrollX() < 0 || getScrollX() > getChildAt(getChildCount() - 1).getLeft()) {
+                if (getScrollX() < 0 || getScrollX() > (getPageCount() - 1) * pageWidth) {
                     deltaX /= 2;
                 }
 
@@ -475,7 +789,7 @@ public class HorizontalPager extends ViewGroup {
                 if (velocityX > SNAP_VELOCITY && mCurrentPage > 0) {
                     // Fling hard enough to move left
                     snapToPage(mCurrentPage - 1);
-                } else if (velocityX < -SNAP_VELOCITY && mCurrentPage < getChildCount() - 1) {
+                } else if (velocityX < -SNAP_VELOCITY && mCurrentPage < getPageCount() - 1) {
                     // Fling hard enough to move right
                     snapToPage(mCurrentPage + 1);
                 } else {
@@ -502,7 +816,7 @@ public class HorizontalPager extends ViewGroup {
         if (getScrollX() < startX - getWidth() / 8) {
             whichPage = Math.max(0, whichPage - 1);
         } else if (getScrollX() > startX + getWidth() / 8) {
-            whichPage = Math.min(getChildCount() - 1, whichPage + 1);
+            whichPage = Math.min(getPageCount() - 1, whichPage + 1);
         }
 
         snapToPage(whichPage);
@@ -516,10 +830,13 @@ public class HorizontalPager extends ViewGroup {
         mNextPage = whichPage;
 
         View focusedChild = getFocusedChild();
-        if (focusedChild != null && changingPages && focusedChild == getChildAt(mCurrentPage)) {
+        if (focusedChild != null && changingPages && focusedChild == getPageView(mCurrentPage)) {
             focusedChild.clearFocus();
         }
 
+        // bind the pages around the one we're heading to before they're scrolled into view
+        populate(whichPage);
+
         final int newX = getScrollXForPage(whichPage);
         final int delta = newX - getScrollX();
         mScroller.startScroll(getScrollX(), 0, delta, 0, Math.abs(delta) * 2);
@@ -539,6 +856,7 @@ public class HorizontalPager extends ViewGroup {
         super.onRestoreInstanceState(savedState.getSuperState());
         if (savedState.currentScreen != INVALID_SCREEN) {
             mCurrentPage = savedState.currentScreen;
+            populate(mCurrentPage);
         }
     }
 
@@ -549,7 +867,7 @@ public class HorizontalPager extends ViewGroup {
     }
 
     public void scrollRight() {
-        if (mNextPage == INVALID_SCREEN && mCurrentPage < getChildCount() - 1
+        if (mNextPage == INVALID_SCREEN && mCurrentPage < getPageCount() - 1
                 && mScroller.isFinished()) {
             snapToPage(mCurrentPage + 1);
         }
@@ -562,7 +880,7 @@ public class HorizontalPager extends ViewGroup {
             int count = getChildCount();
             for (int i = 0; i < count; i++) {
                 if (vp == getChildAt(i)) {
-                    return i;
+                    return mFirstWindowPage + i;
                 }
             }
         }
@@ -608,7 +926,11 @@ public class HorizontalPager extends ViewGroup {
     }
 
     public void addOnScrollListener(OnScrollListener listener) {
-        mListeners.add(listener);
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+            // make sure the new listener learns about the current position
+            mLastNotifiedScrollX = Integer.MIN_VALUE;
+        }
     }
 
     public void removeOnScrollListener(OnScrollListener listener) {
@@ -629,7 +951,7 @@ public class HorizontalPager extends ViewGroup {
          *            Scroll X value
          */
         public void onScroll(int scrollX) {
-            float scale = (float) (pageWidth * getChildCount()) / (float) pagerControl.getWidth();
+            float scale = (float) (pageWidth * getPageCount()) / (float) pagerControl.getWidth();
             pagerControl.setPosition((int) (scrollX / scale));
         }
 
@@ -0,0 +1,399 @@
+/* Copyright (c) 2009-2012 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.core.widgets;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.widget.ImageView;
+
+import com.github.ignition.core.Ignition;
+import com.github.ignition.support.images.remote.ImageLoaderRegistry;
+import com.github.ignition.support.images.remote.RemoteImageLoader;
+import com.github.ignition.support.images.remote.RemoteImageLoaderHandler;
+
+/**
+ * A lightweight alternative to {@link RemoteImageView} for image-heavy lists and galleries. Rather
+ * than switching between a {@link android.widget.ProgressBar} and an {@link ImageView}, this is a
+ * single image view that draws the progress indicator itself while the image is downloaded, so
+ * each item costs one view to measure, lay out and draw instead of three. It supports the same
+ * attributes as {@link RemoteImageView}:
+ * <ul>
+ * <li>android:src (Drawable) -- The default/placeholder image that is shown if no image can be
+ * downloaded, or before the image download starts (see {@link android.R.attr#src})
+ * <li>android:indeterminateDrawable (Drawable) -- The progress drawable to use while the image is
+ * being downloaded (see {@link android.R.attr#indeterminateDrawable})</li>
+ * <li>ignition:imageUrl (String) -- The URL at which the image is found online</li>
+ * <li>ignition:autoLoad (Boolean) -- Whether the download should start immediately after view
+ * inflation</li>
+ * <li>ignition:errorDrawable (Drawable) -- The drawable to display if the image download fails</li>
+ * </ul>
+ * Unless it's an {@link AnimationDrawable}, the progress drawable is spun by rotating it, the same
+ * way the platform's indeterminate progress spinner is animated.
+ */
+public class RemoteImageLightView extends ImageView {
+
+    public static final int DEFAULT_ERROR_DRAWABLE_RES_ID = android.R.drawable.ic_dialog_alert;
+
+    private static final String ATTR_AUTO_LOAD = "autoLoad";
+    private static final String ATTR_IMAGE_URL = "imageUrl";
+    private static final String ATTR_ERROR_DRAWABLE = "errorDrawable";
+
+    private static final int[] ANDROID_VIEW_ATTRS = { android.R.attr.indeterminateDrawable };
+    private static final int ATTR_INDET_DRAWABLE = 0;
+
+    // the progress drawable makes one turn per second, redrawn at 30fps
+    private static final long PROGRESS_TURN_MILLIS = 1000;
+    private static final long PROGRESS_FRAME_MILLIS = 1000 / 30;
+
+    private String imageUrl;
+
+    private boolean autoLoad, isLoaded;
+    // set if the download was cancelled because the view was detached before it completed
+    private boolean reloadOnAttach;
+    // whether to draw the progress drawable instead of the image
+    private boolean showProgress;
+
+    private Drawable placeholderDrawable, progressDrawable, errorDrawable;
+
+    private RemoteImageLoader imageLoader;
+    private static RemoteImageLoader sharedImageLoader;
+
+    /**
+     * Use this method to inject an image loader that will be shared across all instances of this
+     * class. If the shared reference is null, the process-wide default loader of the
+     * {@link ImageLoaderRegistry} is used.
+     * 
+     * @param imageLoader
+     *            the shared image loader
+     */
+    public static void setSharedImageLoader(RemoteImageLoader imageLoader) {
+        sharedImageLoader = imageLoader;
+    }
+
+    /**
+     * @param context
+     *            the view's current context
+     * @param imageUrl
+     *            the URL of the image to download and show
+     * @param autoLoad
+     *            Whether the download should start immediately after creating the view. If set to
+     *            false, use {@link #loadImage()} to manually trigger the image download.
+     */
+    public RemoteImageLightView(Context context, String imageUrl, boolean autoLoad) {
+        super(context);
+        initialize(context, imageUrl, null, null, autoLoad);
+    }
+
+    /**
+     * @param context
+     *            the view's current context
+     * @param imageUrl
+     *            the URL of the image to download and show
+     * @param progressDrawable
+     *            the drawable to be shown while the image is loading
+     * @param errorDrawable
+     *            the drawable to be used if a download error occurs
+     * @param autoLoad
+     *            Whether the download should start immediately after creating the view. If set to
+     *            false, use {@link #loadImage()} to manually trigger the image download.
+     */
+    public RemoteImageLightView(Context context, String imageUrl, Drawable progressDrawable,
+            Drawable errorDrawable, boolean autoLoad) {
+        super(context);
+        initialize(context, imageUrl, progressDrawable, errorDrawable, autoLoad);
+    }
+
+    public RemoteImageLightView(Context context, AttributeSet attributes) {
+        super(context, attributes);
+
+        // falls back to the indeterminate drawable of the platform's progress bar style
+        TypedArray imageViewAttrs = context.getTheme().obtainStyledAttributes(attributes,
+                ANDROID_VIEW_ATTRS, android.R.attr.progressBarStyle, 0);
+        Drawable progressDrawable = imageViewAttrs.getDrawable(ATTR_INDET_DRAWABLE);
+        imageViewAttrs.recycle();
+
+        int errorDrawableId = attributes.getAttributeResourceValue(Ignition.XMLNS,
+                ATTR_ERROR_DRAWABLE, DEFAULT_ERROR_DRAWABLE_RES_ID);
+        Drawable errorDrawable = context.getResources().getDrawable(errorDrawableId);
+
+        String imageUrl = attributes.getAttributeValue(Ignition.XMLNS, ATTR_IMAGE_URL);
+        boolean autoLoad = attributes
+                .getAttributeBooleanValue(Ignition.XMLNS, ATTR_AUTO_LOAD, true);
+
+        initialize(context, imageUrl, progressDrawable, errorDrawable, autoLoad);
+    }
+
+    private void initialize(Context context, String imageUrl, Drawable progressDrawable,
+            Drawable errorDrawable, boolean autoLoad) {
+        this.imageUrl = imageUrl;
+        this.autoLoad = autoLoad;
+        this.errorDrawable = errorDrawable;
+        if (errorDrawable == null) {
+            this.errorDrawable = context.getResources().getDrawable(DEFAULT_ERROR_DRAWABLE_RES_ID);
+        }
+        if (progressDrawable == null) {
+            TypedArray progressAttrs = context.getTheme().obtainStyledAttributes(null,
+                    ANDROID_VIEW_ATTRS, android.R.attr.progressBarStyle, 0);
+            progressDrawable = progressAttrs.getDrawable(ATTR_INDET_DRAWABLE);
+            progressAttrs.recycle();
+        }
+        setProgressDrawable(progressDrawable);
+        // whatever was set through android:src
+        this.placeholderDrawable = getDrawable();
+        if (sharedImageLoader == null) {
+            this.imageLoader = ImageLoaderRegistry.getImageLoader(context);
+        } else {
+            this.imageLoader = sharedImageLoader;
+        }
+
+        if (autoLoad && imageUrl != null) {
+            loadImage();
+        }
+    }
+
+    /**
+     * Use this method to trigger the image download if you had previously set autoLoad to false.
+     */
+    public void loadImage() {
+        if (imageUrl == null) {
+            throw new IllegalStateException(
+                    "image URL is null; did you forget to set it for this view?");
+        }
+        isLoaded = false;
+        setShowProgress(true);
+        imageLoader.loadImage(imageUrl, this, new DefaultImageLoaderHandler());
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (reloadOnAttach) {
+            reloadOnAttach = false;
+            loadImage();
+        } else if (showProgress) {
+            setShowProgress(true);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (!isLoaded && getTag() != null) {
+            // nobody will see this image, so don't keep the image loader busy with it
+            imageLoader.cancel(this);
+            reloadOnAttach = imageUrl != null;
+        }
+        if (progressDrawable instanceof AnimationDrawable) {
+            ((AnimationDrawable) progressDrawable).stop();
+        }
+    }
+
+    private void setShowProgress(boolean showProgress) {
+        boolean changed = this.showProgress != showProgress;
+        this.showProgress = showProgress;
+        if (progressDrawable instanceof AnimationDrawable) {
+            if (showProgress) {
+                ((AnimationDrawable) progressDrawable).start();
+            } else {
+                ((AnimationDrawable) progressDrawable).stop();
+            }
+        }
+        if (changed) {
+            // the progress drawable may need more room than the image
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        if (showProgress && progressDrawable != null) {
+            int width = progressDrawable.getIntrinsicWidth() + getPaddingLeft()
+                    + getPaddingRight();
+            int height = progressDrawable.getIntrinsicHeight() + getPaddingTop()
+                    + getPaddingBottom();
+            setMeasuredDimension(
+                    Math.max(getMeasuredWidth(), resolveSize(width, widthMeasureSpec)),
+                    Math.max(getMeasuredHeight(), resolveSize(height, heightMeasureSpec)));
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (!showProgress || progressDrawable == null) {
+            super.onDraw(canvas);
+            return;
+        }
+
+        int width = progressDrawable.getIntrinsicWidth();
+        int height = progressDrawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            width = height = Math.min(getWidth(), getHeight());
+        }
+        int left = (getWidth() - width) / 2;
+        int top = (getHeight() - height) / 2;
+        progressDrawable.setBounds(left, top, left + width, top + height);
+
+        if (progressDrawable instanceof AnimationDrawable) {
+            // animates itself through the drawable callback
+            progressDrawable.draw(canvas);
+            return;
+        }
+        long turnTime = SystemClock.uptimeMillis() % PROGRESS_TURN_MILLIS;
+        canvas.save();
+        canvas.rotate(turnTime * 360f / PROGRESS_TURN_MILLIS, getWidth() / 2f, getHeight() / 2f);
+        progressDrawable.draw(canvas);
+        canvas.restore();
+        postInvalidateDelayed(PROGRESS_FRAME_MILLIS);
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who == progressDrawable || super.verifyDrawable(who);
+    }
+
+    public boolean isLoaded() {
+        return isLoaded;
+    }
+
+    public void setImageUrl(String imageUrl) {
+        this.imageUrl = imageUrl;
+    }
+
+    /**
+     * Often you have resources which usually have an image, but some don't. For these cases, use
+     * this method to supply a placeholder drawable which will be loaded instead of a web image.
+     * 
+     * @param imageResourceId
+     *            the resource of the placeholder image drawable
+     */
+    public void setNoImageDrawable(int imageResourceId) {
+        setImageDrawable(getContext().getResources().getDrawable(imageResourceId));
+        setShowProgress(false);
+    }
+
+    /**
+     * Shows the progress drawable and the placeholder image again, e.g. before binding a recycled
+     * view to another image.
+     */
+    public void reset() {
+        setImageDrawable(placeholderDrawable);
+        setShowProgress(true);
+    }
+
+    private class DefaultImageLoaderHandler extends RemoteImageLoaderHandler {
+
+        public DefaultImageLoaderHandler() {
+            super(RemoteImageLightView.this, imageUrl, errorDrawable);
+        }
+
+        @Override
+        protected boolean handleImageLoaded(Bitmap bitmap, Message msg) {
+            boolean wasUpdated = super.handleImageLoaded(bitmap, msg);
+            if (wasUpdated) {
+                isLoaded = true;
+                setShowProgress(false);
+            }
+            return wasUpdated;
+        }
+
+        @Override
+        protected boolean handleImagePreviewLoaded(Bitmap preview, Message msg) {
+            boolean wasUpdated = super.handleImagePreviewLoaded(preview, msg);
+            if (wasUpdated) {
+                // show the preview instead of the progress indicator
+                setShowProgress(false);
+            }
+            return wasUpdated;
+        }
+    }
+
+    /**
+     * Returns the URL of the image to show. Corresponds to the view attribute ignition:imageUrl.
+     * 
+     * @return the image URL
+     */
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    /**
+     * Whether or not the image should be downloaded immediately after view inflation. Corresponds
+     * to the view attribute ignition:autoLoad (default: true).
+     * 
+     * @return true if auto downloading of the image is enabled
+     */
+    public boolean isAutoLoad() {
+        return autoLoad;
+    }
+
+    /**
+     * Sets the drawable that is shown, centered, while the image is downloading.
+     * 
+     * @param progressDrawable
+     *            the progress drawable, or null to show nothing
+     */
+    public void setProgressDrawable(Drawable progressDrawable) {
+        if (this.progressDrawable != null) {
+            this.progressDrawable.setCallback(null);
+        }
+        this.progressDrawable = progressDrawable;
+        if (progressDrawable != null) {
+            progressDrawable.setCallback(this);
+        }
+        invalidate();
+    }
+
+    /**
+     * The drawable that is shown while downloading the image. Corresponds to the view attribute
+     * android:indeterminateDrawable. If left blank, the platform's standard indeterminate progress
+     * drawable will be used.
+     * 
+     * @return the progress drawable
+     */
+    public Drawable getProgressDrawable() {
+        return progressDrawable;
+    }
+
+    /**
+     * The drawable that will be shown when the image download fails. Corresponds to the view
+     * attribute ignition:errorDrawable. If left blank, a stock alert icon from the Android platform
+     * will be used.
+     * 
+     * @return the error drawable
+     */
+    public Drawable getErrorDrawable() {
+        return errorDrawable;
+    }
+
+    /**
+     * The image loader used by this view; either the shared image loader, or the default one.
+     * 
+     * @return the {@link RemoteImageLoader}
+     */
+    public RemoteImageLoader getImageLoader() {
+        return imageLoader;
+    }
+}
@@ -28,6 +28,7 @@ import android.widget.ProgressBar;
 import android.widget.ViewSwitcher;
 
 import com.github.ignition.core.Ignition;
+import com.github.ignition.support.images.remote.ImageLoaderRegistry;
 import com.github.ignition.support.images.remote.RemoteImageLoader;
 import com.github.ignition.support.images.remote.RemoteImageLoaderHandler;
 
@@ -61,6 +62,8 @@ public class RemoteImageView extends ViewSwitcher {
     private String imageUrl;
 
     private boolean autoLoad, isLoaded;
+    // set if the download was cancelled because the view was detached before it completed
+    private boolean reloadOnAttach;
 
     private ProgressBar loadingSpinner;
     private ImageView imageView;
@@ -72,8 +75,8 @@ public class RemoteImageView extends ViewSwitcher {
 
     /**
      * Use this method to inject an image loader that will be shared across all instances of this
-     * class. If the shared reference is null, a new {@link RemoteImageLoader} will be instantiated
-     * for every instance of this class.
+     * class. If the shared reference is null, the process-wide default loader of the
+     * {@link ImageLoaderRegistry} is used.
      * 
      * @param imageLoader
      *            the shared image loader
@@ -150,7 +153,7 @@ public class RemoteImageView extends ViewSwitcher {
         this.progressDrawable = progressDrawable;
         this.errorDrawable = errorDrawable;
         if (sharedImageLoader == null) {
-            this.imageLoader = new RemoteImageLoader(context);
+            this.imageLoader = ImageLoaderRegistry.getImageLoader(context);
         } else {
             this.imageLoader = sharedImageLoader;
         }
@@ -213,8 +216,30 @@ public class RemoteImageView extends ViewSwitcher {
             throw new IllegalStateException(
                     "image URL is null; did you forget to set it for this view?");
         }
+        isLoaded = false;
         setDisplayedChild(0);
-        imageLoader.loadImage(imageUrl, imageView, new DefaultImageLoaderHandler());
+        // size the image after this view, not the image view, which is hidden while loading
+        imageLoader.loadImage(imageUrl, imageView, this, new DefaultImageLoaderHandler(),
+                RemoteImageLoader.PRIORITY_VISIBLE);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (reloadOnAttach) {
+            reloadOnAttach = false;
+            loadImage();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (!isLoaded && imageView.getTag() != null) {
+            // nobody will see this image, so don't keep the image loader busy with it
+            imageLoader.cancel(imageView);
+            reloadOnAttach = imageUrl != null;
+        }
     }
 
     public boolean isLoaded() {
@@ -259,6 +284,16 @@ public class RemoteImageView extends ViewSwitcher {
             }
             return wasUpdated;
         }
+
+        @Override
+        protected boolean handleImagePreviewLoaded(Bitmap preview, Message msg) {
+            boolean wasUpdated = super.handleImagePreviewLoaded(preview, msg);
+            if (wasUpdated) {
+                // show the preview instead of the progress indicator
+                setDisplayedChild(1);
+            }
+            return wasUpdated;
+        }
     }
 
     /**
@@ -311,6 +346,16 @@ public class RemoteImageView extends ViewSwitcher {
         return imageView;
     }
 
+    /**
+     * The image loader used by this view: the shared image loader if one was injected, otherwise
+     * the process-wide default from {@link ImageLoaderRegistry}.
+     * 
+     * @return the {@link RemoteImageLoader}
+     */
+    public RemoteImageLoader getImageLoader() {
+        return imageLoader;
+    }
+
     /**
      * The progress bar that is shown while the image is loaded.
      * 
@@ -11,7 +11,7 @@ import android.widget.ImageView.ScaleType;
 
 import com.github.ignition.core.adapters.RemoteImageGalleryAdapter;
 import com.github.ignition.core.widgets.RemoteImageView;
-import com.github.ignition.support.images.remote.RemoteImageLoader;
+import com.github.ignition.support.images.remote.ImageLoaderRegistry;
 
 public class RemoteImageGalleryActivity extends Activity {
 
@@ -25,7 +25,8 @@ public class RemoteImageGalleryActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
-        RemoteImageView.setSharedImageLoader(new RemoteImageLoader(this));
+        // survives configuration changes, unlike a loader created here
+        RemoteImageView.setSharedImageLoader(ImageLoaderRegistry.getImageLoader(this));
 
         Gallery gallery = (Gallery) findViewById(R.id.gallery);
         gallery.setAdapter(new RemoteImageGalleryAdapter(this, Arrays.asList(imageUrls)) {
@@ -0,0 +1,149 @@
+package com.github.ignition.core.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import com.github.ignition.core.widgets.HorizontalPager;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.tester.android.util.TestAttributeSet;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class HorizontalPagerTest {
+
+    private HorizontalPager pager;
+    private PageAdapter adapter;
+
+    @Before
+    public void before() {
+        pager = new HorizontalPager(Robolectric.application, new TestAttributeSet(
+                new HashMap<String, String>()));
+        // no images to warm up here
+        pager.setWarmupBudget(0);
+        adapter = new PageAdapter(100);
+        pager.setAdapter(adapter);
+    }
+
+    @Test
+    public void onlyTheWindowAroundTheCurrentPageExistsAsChildViews() {
+        assertEquals(100, pager.getPageCount());
+        assertWindow(0, 1);
+
+        pager.setCurrentPage(50);
+
+        assertEquals(100, pager.getPageCount());
+        assertWindow(49, 51);
+    }
+
+    @Test
+    public void offscreenPageLimitWidensTheWindow() {
+        pager.setCurrentPage(50);
+
+        pager.setOffscreenPageLimit(2);
+
+        assertWindow(48, 52);
+    }
+
+    @Test
+    public void offscreenPageLimitIsAtLeastOne() {
+        pager.setOffscreenPageLimit(0);
+
+        assertEquals(1, pager.getOffscreenPageLimit());
+    }
+
+    @Test
+    public void movingTheWindowOnlyBindsPagesEnteringIt() {
+        pager.setCurrentPage(10);
+        int numBound = adapter.numBound;
+
+        pager.setCurrentPage(11);
+
+        assertWindow(10, 12);
+        assertEquals(numBound + 1, adapter.numBound);
+    }
+
+    @Test
+    public void pagesLeavingTheWindowAreReused() {
+        pager.setCurrentPage(10);
+        int numCreated = adapter.numCreated;
+
+        pager.setCurrentPage(11);
+        pager.setCurrentPage(80);
+        pager.setCurrentPage(79);
+
+        assertWindow(78, 80);
+        assertEquals(numCreated, adapter.numCreated);
+    }
+
+    @Test
+    public void windowIsClippedToTheAdapter() {
+        pager.setCurrentPage(99);
+        assertWindow(98, 99);
+
+        pager.setCurrentPage(500);
+        assertWindow(98, 99);
+    }
+
+    @Test
+    public void windowFollowsChangesToTheAdapter() {
+        pager.setCurrentPage(50);
+
+        adapter.count = 5;
+        adapter.notifyDataSetChanged();
+
+        assertEquals(5, pager.getPageCount());
+        assertWindow(3, 4);
+    }
+
+    private void assertWindow(int firstPage, int lastPage) {
+        assertEquals(lastPage - firstPage + 1, pager.getChildCount());
+        for (int i = 0; i < pager.getChildCount(); i++) {
+            assertEquals(firstPage + i, pager.getChildAt(i).getTag());
+        }
+    }
+
+    private static class PageAdapter extends BaseAdapter {
+
+        private int count;
+        private int numCreated, numBound;
+
+        PageAdapter(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return position;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View page = convertView;
+            if (page == null) {
+                page = new View(Robolectric.application);
+                numCreated++;
+            }
+            page.setTag(position);
+            numBound++;
+            return page;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.ignition.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+
+import com.github.ignition.core.test.shadows.RemoteImageLoaderMock;
+import com.github.ignition.core.widgets.RemoteImageLightView;
+import com.github.ignition.core.widgets.RemoteImageView;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.tester.android.util.TestAttributeSet;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class RemoteImageLightViewTest {
+
+    private static final String IMAGE_URL = "http://developer.android.com/images/home/android-design.png";
+
+    // a long list of items, each 150x150 pixels
+    private static final int NUM_ITEMS = 200;
+    private static final int ITEM_SIZE = 150;
+
+    private RemoteImageLoaderMock imageLoader;
+
+    @Before
+    public void before() {
+        imageLoader = new RemoteImageLoaderMock();
+        RemoteImageLightView.setSharedImageLoader(imageLoader);
+        RemoteImageView.setSharedImageLoader(imageLoader);
+    }
+
+    @After
+    public void after() {
+        RemoteImageLightView.setSharedImageLoader(null);
+        RemoteImageView.setSharedImageLoader(null);
+    }
+
+    @Test
+    public void testCorrectAttributeInflationAndDefaulting() {
+        RemoteImageLightView imageView = inflate(IMAGE_URL, null);
+
+        // default values for unsupplied attributes
+        assertTrue(imageView.isAutoLoad());
+
+        Drawable expectedErrorDrawable = Robolectric.application.getResources().getDrawable(
+                RemoteImageLightView.DEFAULT_ERROR_DRAWABLE_RES_ID);
+        assertEquals(expectedErrorDrawable, imageView.getErrorDrawable());
+
+        assertEquals(IMAGE_URL, imageView.getImageUrl());
+        assertSame(imageLoader, imageView.getImageLoader());
+    }
+
+    @Test
+    public void canTurnOffAutoLoading() {
+        RemoteImageLightView imageView = inflate(IMAGE_URL, "false");
+
+        assertFalse(imageView.isAutoLoad());
+        assertEquals(0, imageLoader.getNumLoadImageCalls(imageView));
+    }
+
+    @Test
+    public void canCustomizeTheErrorDrawable() {
+        Drawable errorDrawable = new BitmapDrawable();
+        RemoteImageLightView imageView = new RemoteImageLightView(Robolectric.application,
+                IMAGE_URL, null, errorDrawable, false);
+
+        assertSame(errorDrawable, imageView.getErrorDrawable());
+    }
+
+    @Test
+    public void testAutoLoadingOfImages() {
+        RemoteImageLightView autoLoaded = inflate(IMAGE_URL, null);
+        RemoteImageLightView manual = inflate(IMAGE_URL, "false");
+        RemoteImageLightView withoutUrl = inflate(null, null);
+
+        assertEquals(1, imageLoader.getNumLoadImageCalls(autoLoaded));
+        assertEquals(0, imageLoader.getNumLoadImageCalls(manual));
+        // nothing to load yet
+        assertEquals(0, imageLoader.getNumLoadImageCalls(withoutUrl));
+
+        manual.loadImage();
+
+        assertEquals(1, imageLoader.getNumLoadImageCalls(manual));
+    }
+
+    @Test
+    public void cancelsTheDownloadWhenDetachedAndReloadsWhenAttached() {
+        TestLightView imageView = new TestLightView(IMAGE_URL);
+        assertEquals(1, imageLoader.getNumLoadImageCalls(imageView));
+
+        imageView.detach();
+
+        assertTrue(imageLoader.isCancelCalled(imageView));
+        assertNull(imageView.getTag());
+
+        imageView.attach();
+
+        assertEquals(2, imageLoader.getNumLoadImageCalls(imageView));
+        assertFalse(imageView.isLoaded());
+    }
+
+    @Test
+    public void doesntReloadWhenAttachedIfNothingWasCancelled() {
+        TestLightView imageView = new TestLightView(IMAGE_URL);
+        // e.g. bound to no image at all
+        imageView.setTag(null);
+
+        imageView.detach();
+        imageView.attach();
+
+        assertFalse(imageLoader.isCancelCalled(imageView));
+        assertEquals(1, imageLoader.getNumLoadImageCalls(imageView));
+    }
+
+    /**
+     * Compares what a list of image items costs to measure and lay out with either view.
+     */
+    @Test
+    public void needsFewerViewsThanRemoteImageView() {
+        View lightView = new RemoteImageLightView(Robolectric.application, IMAGE_URL, true);
+        View heavyView = new RemoteImageView(Robolectric.application, IMAGE_URL, true);
+
+        assertEquals(1, countViews(lightView));
+        // the switcher, its progress bar and its image view
+        assertEquals(3, countViews(heavyView));
+
+        long lightNanos = measureAndLayOut(new RemoteImageLightView[NUM_ITEMS], true);
+        long heavyNanos = measureAndLayOut(new RemoteImageView[NUM_ITEMS], false);
+        System.out.println("measure and layout of " + NUM_ITEMS + " items: "
+                + (lightNanos / 1000) + "us with RemoteImageLightView, " + (heavyNanos / 1000)
+                + "us with RemoteImageView");
+    }
+
+    private RemoteImageLightView inflate(String imageUrl, String autoLoad) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        if (imageUrl != null) {
+            attributes.put("ignition:imageUrl", imageUrl);
+        }
+        if (autoLoad != null) {
+            attributes.put("ignition:autoLoad", autoLoad);
+        }
+        return new RemoteImageLightView(Robolectric.application, new TestAttributeSet(attributes));
+    }
+
+    private int countViews(View view) {
+        int numViews = 1;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                numViews += countViews(group.getChildAt(i));
+            }
+        }
+        return numViews;
+    }
+
+    /**
+     * Creates, measures and lays out the given number of list items.
+     *
+     * @return the time it took in nanoseconds
+     */
+    private long measureAndLayOut(View[] items, boolean light) {
+        int spec = MeasureSpec.makeMeasureSpec(ITEM_SIZE, MeasureSpec.EXACTLY);
+        long start = System.nanoTime();
+        for (int i = 0; i < items.length; i++) {
+            if (light) {
+                items[i] = new RemoteImageLightView(Robolectric.application, IMAGE_URL, true);
+            } else {
+                items[i] = new RemoteImageView(Robolectric.application, IMAGE_URL, true);
+            }
+            items[i].measure(spec, spec);
+            items[i].layout(0, i * ITEM_SIZE, ITEM_SIZE, (i + 1) * ITEM_SIZE);
+        }
+        long nanos = System.nanoTime() - start;
+
+        for (View item : items) {
+            // both take up the same room in the list
+            assertEquals(ITEM_SIZE, item.getMeasuredWidth());
+            assertEquals(ITEM_SIZE, item.getMeasuredHeight());
+            assertEquals(ITEM_SIZE, item.getHeight());
+        }
+        return nanos;
+    }
+
+    /**
+     * Lets the test attach and detach the view, which otherwise only its window can.
+     */
+    private static class TestLightView extends RemoteImageLightView {
+
+        TestLightView(String imageUrl) {
+            super(Robolectric.application, imageUrl, true);
+        }
+
+        void attach() {
+            onAttachedToWindow();
+        }
+
+        void detach() {
+            onDetachedFromWindow();
+        }
+    }
+}
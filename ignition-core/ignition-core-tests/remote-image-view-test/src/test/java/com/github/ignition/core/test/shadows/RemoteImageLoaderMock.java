@@ -14,6 +14,8 @@ import com.xtremelabs.robolectric.Robolectric;
 public class RemoteImageLoaderMock extends RemoteImageLoader {
 
     private List<Integer> loadedImages = new LinkedList<Integer>();
+    private List<ImageView> loadedViews = new LinkedList<ImageView>();
+    private List<ImageView> cancelledViews = new LinkedList<ImageView>();
 
     public RemoteImageLoaderMock() {
         super(Robolectric.application, false);
@@ -21,15 +23,50 @@ public class RemoteImageLoaderMock extends RemoteImageLoader {
 
     @Override
     public void loadImage(String imageUrl, ImageView imageView) {
-        loadedImages.add(((View) imageView.getParent()).getId());
+        recordLoad(imageUrl, imageView);
     }
 
     @Override
     public void loadImage(String imageUrl, ImageView imageView, RemoteImageLoaderHandler handler) {
-        loadedImages.add(((View) imageView.getParent()).getId());
+        recordLoad(imageUrl, imageView);
+    }
+
+    @Override
+    public void loadImage(String imageUrl, ImageView imageView, View sizeView,
+            RemoteImageLoaderHandler handler, int priority) {
+        recordLoad(imageUrl, imageView);
+    }
+
+    @Override
+    public void cancel(ImageView imageView) {
+        cancelledViews.add(imageView);
+        imageView.setTag(null);
+    }
+
+    private void recordLoad(String imageUrl, ImageView imageView) {
+        // like the real loader, which tags the view with the image it's waiting for
+        imageView.setTag(imageUrl);
+        loadedViews.add(imageView);
+        if (imageView.getParent() != null) {
+            loadedImages.add(((View) imageView.getParent()).getId());
+        }
     }
 
     public boolean isLoadImageCalled(RemoteImageView view) {
         return loadedImages.contains(view.getId());
     }
+
+    public int getNumLoadImageCalls(ImageView view) {
+        int numCalls = 0;
+        for (ImageView loadedView : loadedViews) {
+            if (loadedView == view) {
+                numCalls++;
+            }
+        }
+        return numCalls;
+    }
+
+    public boolean isCancelCalled(ImageView view) {
+        return cancelledViews.contains(view);
+    }
 }
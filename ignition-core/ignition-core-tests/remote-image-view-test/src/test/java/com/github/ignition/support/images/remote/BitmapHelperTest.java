@@ -0,0 +1,113 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class BitmapHelperTest {
+
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    @Test
+    public void opaquePngHasNoAlpha() {
+        byte[] header = png(COLOR_TYPE_RGB, chunk("IDAT", 16));
+        assertFalse(sniffAlpha(header));
+    }
+
+    @Test
+    public void pngWithAlphaChannelHasAlpha() {
+        byte[] header = png(COLOR_TYPE_RGBA, chunk("IDAT", 16));
+        assertTrue(sniffAlpha(header));
+    }
+
+    @Test
+    public void pngWithTransparencyChunkHasAlpha() {
+        byte[] header = png(COLOR_TYPE_RGB, chunk("tRNS", 6), chunk("IDAT", 16));
+        assertTrue(sniffAlpha(header));
+    }
+
+    @Test
+    public void skipsAncillaryChunksBeforeTheFirstImageDataChunk() {
+        byte[] header = png(COLOR_TYPE_RGB, chunk("gAMA", 4), chunk("pHYs", 9),
+                chunk("IDAT", 16));
+        assertFalse(sniffAlpha(header));
+    }
+
+    @Test
+    public void assumesAlphaIfTheFirstImageDataChunkIsPastTheHeader() {
+        byte[] header = png(COLOR_TYPE_RGB, chunk("iCCP", 4096));
+        header = truncate(header, 64);
+        assertTrue(sniffAlpha(header));
+    }
+
+    @Test
+    public void survivesChunkLengthsThatWouldOverflowTheOffset() {
+        byte[] header = png(COLOR_TYPE_RGB, chunkHeader("gAMA", 0x7ffffff8), chunk("IDAT", 16));
+        assertTrue(sniffAlpha(header));
+    }
+
+    @Test
+    public void survivesNegativeChunkLengths() {
+        byte[] header = png(COLOR_TYPE_RGB, chunkHeader("gAMA", 0xffffffff), chunk("IDAT", 16));
+        assertTrue(sniffAlpha(header));
+    }
+
+    @Test
+    public void jpegsHaveNoAlpha() {
+        byte[] header = new byte[] { (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0 };
+        assertEquals(BitmapHelper.MIME_TYPE_JPEG,
+                BitmapHelper.sniffMimeType(header, header.length));
+        assertFalse(BitmapHelper.sniffAlpha(BitmapHelper.MIME_TYPE_JPEG, header, header.length));
+    }
+
+    private static boolean sniffAlpha(byte[] header) {
+        String mimeType = BitmapHelper.sniffMimeType(header, header.length);
+        assertEquals(BitmapHelper.MIME_TYPE_PNG, mimeType);
+        return BitmapHelper.sniffAlpha(mimeType, header, header.length);
+    }
+
+    private static byte[] png(int colorType, byte[]... chunks) {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        png.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' }, 0, 8);
+        byte[] ihdr = chunk("IHDR", 13);
+        // width and height 1, bit depth 8
+        ihdr[11] = 1;
+        ihdr[15] = 1;
+        ihdr[16] = 8;
+        ihdr[17] = (byte) colorType;
+        png.write(ihdr, 0, ihdr.length);
+        for (byte[] chunk : chunks) {
+            png.write(chunk, 0, chunk.length);
+        }
+        return png.toByteArray();
+    }
+
+    private static byte[] chunk(String type, int length) {
+        byte[] chunk = new byte[length + 12];
+        byte[] header = chunkHeader(type, length);
+        System.arraycopy(header, 0, chunk, 0, header.length);
+        return chunk;
+    }
+
+    // just the length and type, as if the rest of the chunk were cut off
+    private static byte[] chunkHeader(String type, int length) {
+        return new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8),
+                (byte) length, (byte) type.charAt(0), (byte) type.charAt(1),
+                (byte) type.charAt(2), (byte) type.charAt(3) };
+    }
+
+    private static byte[] truncate(byte[] data, int length) {
+        byte[] truncated = new byte[length];
+        System.arraycopy(data, 0, truncated, 0, length);
+        return truncated;
+    }
+}
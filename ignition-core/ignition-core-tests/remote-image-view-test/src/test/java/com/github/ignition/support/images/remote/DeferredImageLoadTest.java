@@ -0,0 +1,136 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.util.DisplayMetrics;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+import com.xtremelabs.robolectric.Robolectric;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class DeferredImageLoadTest {
+
+    private static final String IMAGE_URL = "http://example.com/image.png";
+
+    private RemoteImageLoader imageLoader;
+    private ImageView imageView;
+    private RemoteImageLoaderHandler handler;
+
+    @Before
+    public void before() {
+        imageLoader = new RemoteImageLoader(Robolectric.application, false);
+        // keeps jobs from running, so we can look at what was requested
+        imageLoader.pause();
+        imageView = new ImageView(Robolectric.application);
+        handler = new RemoteImageLoaderHandler(imageView, IMAGE_URL, null);
+    }
+
+    @After
+    public void after() {
+        imageLoader.shutdown();
+    }
+
+    @Test
+    public void loadsRightAwayIfLayoutParamsHaveAnExplicitSize() {
+        imageView.setLayoutParams(new ViewGroup.LayoutParams(120, 80));
+
+        load();
+
+        assertNull(handler.deferredLoad);
+        assertJobSize(120, 80);
+    }
+
+    @Test
+    public void defersLoadUntilTheViewIsLaidOut() {
+        imageView.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.FILL_PARENT,
+                ViewGroup.LayoutParams.FILL_PARENT));
+
+        load();
+
+        assertNotNull(handler.deferredLoad);
+        assertNull(imageLoader.getJob(handler));
+        assertEquals(0, imageLoader.getMetrics().getNumRequests());
+        assertEquals(IMAGE_URL, imageView.getTag());
+
+        imageView.layout(0, 0, 200, 150);
+        handler.deferredLoad.onPreDraw();
+
+        assertNull(handler.deferredLoad);
+        assertJobSize(200, 150);
+    }
+
+    @Test
+    public void sizesViewsWrappingTheirContentAfterTheirContainer() {
+        FrameLayout container = new FrameLayout(Robolectric.application);
+        container.setLayoutParams(new ViewGroup.LayoutParams(300, 200));
+        imageView.setLayoutParams(new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        container.addView(imageView);
+        // e.g. laid out around a small placeholder, which must not limit the image size
+        imageView.layout(0, 0, 48, 48);
+
+        load();
+
+        assertJobSize(300, 200);
+    }
+
+    @Test
+    public void canSizeImagesAfterAnotherView() {
+        FrameLayout container = new FrameLayout(Robolectric.application);
+        container.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.FILL_PARENT,
+                ViewGroup.LayoutParams.FILL_PARENT));
+        container.addView(imageView);
+        container.layout(0, 0, 320, 240);
+        imageView.layout(0, 0, 48, 48);
+
+        imageLoader.loadImage(IMAGE_URL, imageView, container, handler,
+                RemoteImageLoader.PRIORITY_VISIBLE);
+
+        assertJobSize(320, 240);
+    }
+
+    @Test
+    public void fallsBackToScreenSizeForViewsWithoutASize() {
+        load();
+        // laid out, but with nothing to show
+        handler.deferredLoad.onPreDraw();
+
+        DisplayMetrics metrics = Robolectric.application.getResources().getDisplayMetrics();
+        assertJobSize(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    @Test
+    public void cancellingDropsTheDeferredLoad() {
+        load();
+        ViewTreeObserver.OnPreDrawListener deferredLoad = handler.deferredLoad;
+
+        imageLoader.cancel(imageView);
+        deferredLoad.onPreDraw();
+
+        assertNull(handler.deferredLoad);
+        assertNull(imageLoader.getJob(handler));
+        assertEquals(0, imageLoader.getMetrics().getNumRequests());
+    }
+
+    private void load() {
+        imageLoader.loadImage(IMAGE_URL, imageView, handler, RemoteImageLoader.PRIORITY_VISIBLE);
+    }
+
+    private void assertJobSize(int width, int height) {
+        RemoteImageLoaderJob job = imageLoader.getJob(handler);
+        assertNotNull(job);
+        assertEquals(width, job.getWidth());
+        assertEquals(height, job.getHeight());
+    }
+}
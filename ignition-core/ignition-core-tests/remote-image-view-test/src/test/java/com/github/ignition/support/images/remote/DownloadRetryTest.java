@@ -0,0 +1,93 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class DownloadRetryTest {
+
+    private static final String IMAGE_URL = "http://example.com/image.png";
+
+    @Test
+    public void retriesConnectionFailures() {
+        RemoteImageLoaderJob job = newJob(3);
+
+        assertTrue(job.isRetryable(new SocketException("Connection reset by peer")));
+        assertTrue(job.isRetryable(new SocketTimeoutException()));
+        assertTrue(job.isRetryable(new IOException()));
+    }
+
+    @Test
+    public void retriesServerErrors() {
+        RemoteImageLoaderJob job = newJob(3);
+
+        assertTrue(job.isRetryable(new ImageDownloadException("unavailable", 503)));
+        assertTrue(job.isRetryable(new ImageDownloadException("internal error", 500)));
+        assertTrue(job.isRetryable(new ImageDownloadException("timeout", 408)));
+        assertTrue(job.isRetryable(new ImageDownloadException("too many requests", 429)));
+    }
+
+    @Test
+    public void doesntRetryClientErrors() {
+        RemoteImageLoaderJob job = newJob(3);
+
+        assertFalse(job.isRetryable(new ImageDownloadException("not found", 404)));
+        assertFalse(job.isRetryable(new ImageDownloadException("forbidden", 403)));
+        assertFalse(job.isRetryable(new ImageDownloadException("invalid image URL", 0)));
+        assertEquals(-1, job.onDownloadFailed(new ImageDownloadException("not found", 404)));
+    }
+
+    @Test
+    public void doesntRetryErrorsOtherThanIOExceptions() {
+        RemoteImageLoaderJob job = newJob(3);
+
+        assertFalse(job.isRetryable(new OutOfMemoryError()));
+        assertFalse(job.isRetryable(new IllegalArgumentException()));
+        assertEquals(-1, job.onDownloadFailed(new OutOfMemoryError()));
+    }
+
+    @Test
+    public void backsOffExponentiallyWithJitter() {
+        RemoteImageLoaderJob job = newJob(10);
+
+        long expected = 1000;
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long delay = job.onDownloadFailed(new SocketException());
+            long maxDelay = Math.min(expected, 30 * 1000);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= maxDelay / 2);
+            assertTrue("attempt " + attempt + ": " + delay, delay <= maxDelay);
+            expected *= 2;
+        }
+    }
+
+    @Test
+    public void givesUpAfterNumRetriesAttempts() {
+        RemoteImageLoaderJob job = newJob(3);
+
+        assertTrue(job.onDownloadFailed(new SocketException()) >= 0);
+        assertTrue(job.onDownloadFailed(new SocketException()) >= 0);
+        assertEquals(-1, job.onDownloadFailed(new SocketException()));
+    }
+
+    @Test
+    public void doesntRetryCancelledJobs() {
+        RemoteImageLoaderJob job = newJob(3);
+        job.cancel();
+
+        assertEquals(-1, job.onDownloadFailed(new SocketException("Socket closed")));
+    }
+
+    private RemoteImageLoaderJob newJob(int numRetries) {
+        return new RemoteImageLoaderJob(IMAGE_URL, null, null, numRetries, 8192);
+    }
+}
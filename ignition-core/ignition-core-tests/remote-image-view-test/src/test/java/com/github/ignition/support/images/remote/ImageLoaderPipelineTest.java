@@ -0,0 +1,397 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+import com.github.ignition.support.cache.ImageCache;
+import com.github.ignition.support.cache.ImageTileCache;
+import com.xtremelabs.robolectric.Robolectric;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class ImageLoaderPipelineTest {
+
+    private ImageLoaderPipeline pipeline;
+
+    @Before
+    public void before() {
+        pipeline = new ImageLoaderPipeline(1, 1, 1);
+    }
+
+    @After
+    public void after() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void cachedImagesDontWaitForDownloads() throws InterruptedException {
+        TestJob download = start(ImageLoaderPipeline.STAGE_NETWORK);
+        TestJob lookup = new TestJob(ImageLoaderPipeline.STAGE_CACHE);
+
+        assertTrue(pipeline.execute(lookup));
+
+        assertTrue(lookup.awaitRun());
+        download.release();
+    }
+
+    @Test
+    public void queuesJobsForTheStageTheyreIn() throws InterruptedException {
+        TestJob download = start(ImageLoaderPipeline.STAGE_NETWORK);
+        TestJob queued = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+
+        pipeline.execute(queued);
+
+        assertEquals(1, pipeline.getQueueSize(ImageLoaderPipeline.STAGE_NETWORK));
+        assertEquals(0, pipeline.getQueueSize(ImageLoaderPipeline.STAGE_CACHE));
+        assertEquals(1, pipeline.getTotalQueueSize());
+        download.release();
+        assertTrue(queued.awaitRun());
+    }
+
+    @Test
+    public void removedJobsDontRun() throws InterruptedException {
+        TestJob download = start(ImageLoaderPipeline.STAGE_NETWORK);
+        TestJob removed = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+        // runs after the removed job would have
+        TestJob last = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+        last.setPriority(RemoteImageLoader.PRIORITY_BACKGROUND);
+        pipeline.execute(removed);
+        pipeline.execute(last);
+
+        assertTrue(pipeline.remove(removed));
+        assertFalse(pipeline.remove(download));
+        download.release();
+
+        assertTrue(last.awaitRun());
+        assertFalse(removed.hasRun());
+        // up to the caller, since it may queue the job again
+        assertFalse(removed.isFinished());
+
+        removed.finish();
+
+        assertTrue(removed.isFinished());
+        assertTrue(removed.discarded);
+        assertEquals(0, removed.inFlightJobs.size());
+    }
+
+    @Test
+    public void cancellingAQueuedLoadFinishesItsJob() {
+        RemoteImageLoader imageLoader = new RemoteImageLoader(Robolectric.application, false);
+        imageLoader.pause();
+        ImageView imageView = new ImageView(Robolectric.application);
+        imageView.setLayoutParams(new ViewGroup.LayoutParams(120, 80));
+        RemoteImageLoaderHandler handler = new RemoteImageLoaderHandler(imageView,
+                TestJob.IMAGE_URL, null);
+        imageLoader.loadImage(TestJob.IMAGE_URL, imageView, handler,
+                RemoteImageLoader.PRIORITY_VISIBLE);
+        final CountDownLatch finished = new CountDownLatch(1);
+        imageLoader.getJob(handler).setOnFinished(new Runnable() {
+            @Override
+            public void run() {
+                finished.countDown();
+            }
+        });
+
+        imageLoader.cancel(handler);
+
+        assertEquals(0, finished.getCount());
+        assertNull(imageLoader.getJob(handler));
+        assertEquals(1, imageLoader.getMetrics().getQueueWaitHistogram().getCount());
+        imageLoader.shutdown();
+    }
+
+    @Test
+    public void shutdownCancelsQueuedJobs() throws InterruptedException {
+        TestJob download = start(ImageLoaderPipeline.STAGE_NETWORK);
+        TestJob queued = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+        pipeline.execute(queued);
+
+        pipeline.shutdown();
+
+        assertTrue(pipeline.isShutdown());
+        assertTrue(queued.isCancelled());
+        assertFalse(queued.hasRun());
+        assertTrue(queued.isFinished());
+        assertTrue(queued.discarded);
+        assertEquals(0, queued.inFlightJobs.size());
+        assertFalse(download.isCancelled());
+    }
+
+    @Test
+    public void shutdownFinishesDelayedJobs() {
+        TestJob retry = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+        pipeline.executeLater(retry, 60 * 1000);
+
+        pipeline.shutdown();
+
+        assertTrue(retry.isCancelled());
+        assertTrue(retry.isFinished());
+    }
+
+    @Test
+    public void tilesFailIfTheirSourceJobIsCancelledWhileQueued() throws InterruptedException {
+        TestJob lookup = start(ImageLoaderPipeline.STAGE_CACHE);
+        TestTileHandler handler = new TestTileHandler();
+        RemoteImageTileJob tileJob = newTileJob(handler);
+        RemoteImageLoaderJob sourceJob = tileJob.getSourceJob();
+        pipeline.execute(sourceJob);
+
+        // what the loader does when cancelling a job
+        sourceJob.cancel();
+        assertTrue(pipeline.remove(sourceJob));
+        sourceJob.finish();
+        lookup.release();
+
+        assertEquals(1, handler.numFailures);
+    }
+
+    @Test
+    public void tilesFailIfTheirSourceJobIsDroppedByShutdown() throws InterruptedException {
+        start(ImageLoaderPipeline.STAGE_CACHE);
+        TestTileHandler handler = new TestTileHandler();
+        pipeline.execute(newTileJob(handler).getSourceJob());
+
+        pipeline.shutdown();
+
+        assertEquals(1, handler.numFailures);
+    }
+
+    @Test
+    public void jobsQueuedAfterShutdownAreCancelled() {
+        pipeline.shutdown();
+        TestJob job = new TestJob(ImageLoaderPipeline.STAGE_CACHE);
+        TestJob retry = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+
+        assertFalse(pipeline.execute(job));
+        assertFalse(pipeline.executeLater(retry, 10));
+
+        assertTrue(job.isCancelled());
+        assertTrue(retry.isCancelled());
+    }
+
+    @Test
+    public void queuesJobsLater() throws InterruptedException {
+        TestJob retry = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+
+        assertTrue(pipeline.executeLater(retry, 50));
+
+        assertTrue(retry.awaitRun());
+    }
+
+    @Test
+    public void pausingHoldsBackNewJobs() throws InterruptedException {
+        pipeline.pause();
+        TestJob job = new TestJob(ImageLoaderPipeline.STAGE_CACHE);
+
+        assertTrue(pipeline.execute(job));
+
+        assertTrue(pipeline.isPaused());
+        assertEquals(1, pipeline.getNumHeldJobs());
+        assertEquals(1, pipeline.getTotalQueueSize());
+        assertFalse(job.awaitRun(100));
+
+        pipeline.resume();
+
+        assertFalse(pipeline.isPaused());
+        assertEquals(0, pipeline.getNumHeldJobs());
+        assertTrue(job.awaitRun());
+    }
+
+    @Test
+    public void pausingHoldsBackQueuedJobs() throws InterruptedException {
+        TestJob download = start(ImageLoaderPipeline.STAGE_NETWORK);
+        TestJob queued = new TestJob(ImageLoaderPipeline.STAGE_NETWORK);
+        pipeline.execute(queued);
+
+        pipeline.pause();
+        download.release();
+
+        assertEquals(0, pipeline.getQueueSize(ImageLoaderPipeline.STAGE_NETWORK));
+        assertEquals(1, pipeline.getNumHeldJobs());
+        assertFalse(queued.awaitRun(100));
+
+        pipeline.resume();
+
+        assertTrue(queued.awaitRun());
+    }
+
+    @Test
+    public void memoryCacheHitsAreServedWhilePaused() throws InterruptedException {
+        ImageCache imageCache = new ImageCache(5, 60, 1, 0, 0);
+        imageCache.put(TestJob.IMAGE_URL, new byte[] { 1, 2, 3 });
+        pipeline.pause();
+        TestJob hit = new TestJob(ImageLoaderPipeline.STAGE_CACHE, imageCache);
+
+        pipeline.execute(hit);
+
+        assertEquals(0, pipeline.getNumHeldJobs());
+        assertTrue(hit.awaitRun());
+    }
+
+    @Test
+    public void resumingSkipsJobsCancelledWhilePaused() throws InterruptedException {
+        pipeline.pause();
+        TestJob cancelled = new TestJob(ImageLoaderPipeline.STAGE_CACHE);
+        TestJob removed = new TestJob(ImageLoaderPipeline.STAGE_CACHE);
+        // runs after the other jobs would have
+        TestJob last = new TestJob(ImageLoaderPipeline.STAGE_CACHE);
+        last.setPriority(RemoteImageLoader.PRIORITY_BACKGROUND);
+        pipeline.execute(cancelled);
+        pipeline.execute(removed);
+        pipeline.execute(last);
+
+        cancelled.cancel();
+        // e.g. because its view has been bound to another image
+        assertTrue(pipeline.remove(removed));
+        pipeline.resume();
+
+        assertTrue(last.awaitRun());
+        assertFalse(cancelled.hasRun());
+        assertFalse(removed.hasRun());
+    }
+
+    @Test
+    public void shutdownCancelsHeldJobs() {
+        pipeline.pause();
+        TestJob held = new TestJob(ImageLoaderPipeline.STAGE_CACHE);
+        pipeline.execute(held);
+
+        pipeline.shutdown();
+
+        assertTrue(held.isCancelled());
+        assertTrue(held.isFinished());
+        assertEquals(0, pipeline.getNumHeldJobs());
+    }
+
+    @Test
+    public void resizesStagePools() {
+        pipeline.setPoolSize(ImageLoaderPipeline.STAGE_NETWORK, 4);
+        assertEquals(4, pipeline.getPoolSize(ImageLoaderPipeline.STAGE_NETWORK));
+
+        pipeline.setPoolSize(ImageLoaderPipeline.STAGE_NETWORK, 2);
+        assertEquals(2, pipeline.getPoolSize(ImageLoaderPipeline.STAGE_NETWORK));
+        assertEquals(1, pipeline.getPoolSize(ImageLoaderPipeline.STAGE_CACHE));
+    }
+
+    private RemoteImageTileJob newTileJob(RemoteImageTileHandler handler) {
+        ImageCache imageCache = new ImageCache(5, 60, 1, 0, 0);
+        return new RemoteImageTileJob(TestJob.IMAGE_URL, new Rect(0, 0, 512, 512), 1, handler,
+                imageCache, new ImageTileCache(5, 1), 3, 8192);
+    }
+
+    /**
+     * Queues a job that keeps the only thread of the given stage busy until released.
+     */
+    private TestJob start(int stage) throws InterruptedException {
+        TestJob job = new TestJob(stage, true);
+        pipeline.execute(job);
+        assertTrue(job.awaitRun());
+        return job;
+    }
+
+    private static class TestTileHandler extends RemoteImageTileHandler {
+
+        private int numFailures;
+
+        @Override
+        protected void handleTileLoaded(Rect region, int sampleSize, Bitmap tile) {
+        }
+
+        @Override
+        protected void handleTilesFailed() {
+            numFailures++;
+        }
+    }
+
+    private static class TestJob extends RemoteImageLoaderJob {
+
+        static final String IMAGE_URL = "http://example.com/image.png";
+
+        private final CountDownLatch ran = new CountDownLatch(1);
+        private final CountDownLatch released;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        // what the job was registered with, so tests can check it was unregistered
+        final InFlightJobs inFlightJobs = new InFlightJobs();
+        volatile boolean discarded;
+
+        TestJob(int stage) {
+            this(stage, false);
+        }
+
+        TestJob(int stage, boolean blocking) {
+            super(IMAGE_URL, null, null, 3, 8192);
+            setStage(stage);
+            released = new CountDownLatch(blocking ? 1 : 0);
+            init();
+        }
+
+        TestJob(int stage, ImageCache imageCache) {
+            super(IMAGE_URL, null, imageCache, 3, 8192);
+            setStage(stage);
+            released = new CountDownLatch(0);
+            init();
+        }
+
+        private void init() {
+            inFlightJobs.add(this);
+            setInFlightJobs(inFlightJobs);
+            setOnFinished(new Runnable() {
+                @Override
+                public void run() {
+                    finished.countDown();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            ran.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                // shut down
+            }
+        }
+
+        boolean awaitRun() throws InterruptedException {
+            return awaitRun(5000);
+        }
+
+        boolean awaitRun(long timeoutMillis) throws InterruptedException {
+            return ran.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        boolean hasRun() {
+            return ran.getCount() == 0;
+        }
+
+        boolean isFinished() {
+            return finished.getCount() == 0;
+        }
+
+        @Override
+        protected void discardImageData() {
+            discarded = true;
+            super.discardImageData();
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+}
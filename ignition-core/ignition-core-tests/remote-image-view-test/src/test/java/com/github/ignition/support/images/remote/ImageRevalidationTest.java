@@ -0,0 +1,140 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+import com.github.ignition.support.cache.AbstractCache;
+import com.github.ignition.support.cache.ImageCache;
+import com.xtremelabs.robolectric.Robolectric;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class ImageRevalidationTest {
+
+    private static final String IMAGE_URL = "http://example.com/image.png";
+    private static final String ETAG = "\"686897696a7c876b7e\"";
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+    private static final byte[] IMAGE_DATA = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    private ImageCache imageCache;
+
+    @Before
+    public void before() {
+        imageCache = new ImageCache(5, 60, 1, 0, 0);
+        assertTrue(imageCache.enableDiskCache(Robolectric.application,
+                AbstractCache.DISK_CACHE_INTERNAL));
+    }
+
+    @After
+    public void after() {
+        imageCache.clear(true);
+    }
+
+    @Test
+    public void validatorsRoundTripThroughTheDiskCache() {
+        cache(new ImageValidators(ETAG, LAST_MODIFIED));
+        expire();
+
+        ImageValidators validators = imageCache.getValidatorsForRevalidation(IMAGE_URL);
+
+        assertNotNull(validators);
+        assertEquals(ETAG, validators.getETag());
+        assertEquals(LAST_MODIFIED, validators.getLastModified());
+        assertEquals(1, imageCache.getNumRevalidations());
+    }
+
+    @Test
+    public void missingValidatorsRoundTripAsNull() {
+        cache(new ImageValidators(null, LAST_MODIFIED));
+        expire();
+
+        ImageValidators validators = imageCache.getValidatorsForRevalidation(IMAGE_URL);
+
+        assertNull(validators.getETag());
+        assertEquals(LAST_MODIFIED, validators.getLastModified());
+
+        cache(new ImageValidators(ETAG, null));
+        expire();
+
+        validators = imageCache.getValidatorsForRevalidation(IMAGE_URL);
+
+        assertEquals(ETAG, validators.getETag());
+        assertNull(validators.getLastModified());
+    }
+
+    @Test
+    public void freshImagesArentRevalidated() {
+        cache(new ImageValidators(ETAG, LAST_MODIFIED));
+
+        assertNull(imageCache.getValidatorsForRevalidation(IMAGE_URL));
+        assertTrue(imageCache.containsKeyOnDisk(IMAGE_URL));
+    }
+
+    @Test
+    public void expiredImagesAreMissesUntilRefreshed() {
+        cache(new ImageValidators(ETAG, LAST_MODIFIED));
+        expire();
+
+        assertFalse(imageCache.containsKeyOnDisk(IMAGE_URL));
+        assertNull(imageCache.getCachedImageFile(IMAGE_URL));
+        assertNotNull(imageCache.getValidatorsForRevalidation(IMAGE_URL));
+
+        File imageFile = imageCache.refresh(IMAGE_URL);
+
+        assertNotNull(imageFile);
+        assertTrue(imageCache.containsKeyOnDisk(IMAGE_URL));
+        assertNull(imageCache.getValidatorsForRevalidation(IMAGE_URL));
+        assertEquals(1, imageCache.getNumNotModified());
+        assertEquals(IMAGE_DATA.length, imageCache.getRevalidationBytesSaved());
+    }
+
+    @Test
+    public void expiredImagesWithoutValidatorsAreDropped() {
+        cache(null);
+        expire();
+
+        assertNull(imageCache.getValidatorsForRevalidation(IMAGE_URL));
+        assertFalse(getImageFile().exists());
+        assertNull(imageCache.refresh(IMAGE_URL));
+    }
+
+    @Test
+    public void removingAnImageRemovesItsValidators() {
+        cache(new ImageValidators(ETAG, LAST_MODIFIED));
+
+        imageCache.remove(IMAGE_URL);
+        // cached again, by someone who doesn't know about validators
+        imageCache.put(IMAGE_URL, IMAGE_DATA);
+        expire();
+
+        assertNull(imageCache.getValidatorsForRevalidation(IMAGE_URL));
+    }
+
+    private void cache(ImageValidators validators) {
+        imageCache.put(IMAGE_URL, IMAGE_DATA);
+        imageCache.putValidators(IMAGE_URL, validators);
+    }
+
+    private File getImageFile() {
+        return new File(imageCache.getDiskCacheDirectory(),
+                imageCache.getFileNameForKey(IMAGE_URL));
+    }
+
+    /**
+     * Backdates the image past the cache's expiration time, but not past the revalidation window.
+     */
+    private void expire() {
+        long twoHoursAgo = System.currentTimeMillis() - 2 * 60 * 60 * 1000;
+        assertTrue(getImageFile().setLastModified(twoHoursAgo));
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.widget.ImageView;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+import com.xtremelabs.robolectric.Robolectric;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class InFlightJobsTest {
+
+    private static final String IMAGE_URL = "http://example.com/image.png";
+    private static final String OTHER_IMAGE_URL = "http://example.com/other.png";
+    private static final int QUALITY = BitmapDecodePolicy.QUALITY_HIGH;
+
+    private InFlightJobs inFlightJobs;
+
+    @Before
+    public void before() {
+        inFlightJobs = new InFlightJobs();
+    }
+
+    @Test
+    public void attachesToAJobLoadingTheSameImageAtLeastAsLarge() {
+        RemoteImageLoaderJob job = addJob(IMAGE_URL, 200, 200, newHandler(IMAGE_URL));
+        RemoteImageLoaderHandler handler = newHandler(IMAGE_URL);
+
+        assertSame(job, inFlightJobs.attach(IMAGE_URL, 100, 150, QUALITY, handler));
+        assertTrue(job.hasHandler(handler));
+        assertSame(job, inFlightJobs.find(handler));
+    }
+
+    @Test
+    public void doesntAttachToAJobLoadingASmallerImage() {
+        RemoteImageLoaderJob job = addJob(IMAGE_URL, 100, 100, newHandler(IMAGE_URL));
+        RemoteImageLoaderHandler handler = newHandler(IMAGE_URL);
+
+        assertNull(inFlightJobs.attach(IMAGE_URL, 200, 100, QUALITY, handler));
+        assertFalse(job.hasHandler(handler));
+    }
+
+    @Test
+    public void doesntAttachToAJobLoadingAnotherImage() {
+        addJob(OTHER_IMAGE_URL, 200, 200, newHandler(OTHER_IMAGE_URL));
+
+        assertNull(inFlightJobs.attach(IMAGE_URL, 100, 100, QUALITY, newHandler(IMAGE_URL)));
+    }
+
+    @Test
+    public void doesntAttachToACancelledJob() {
+        RemoteImageLoaderJob job = addJob(IMAGE_URL, 200, 200, newHandler(IMAGE_URL));
+        job.cancel();
+
+        assertNull(inFlightJobs.attach(IMAGE_URL, 100, 100, QUALITY, newHandler(IMAGE_URL)));
+    }
+
+    @Test
+    public void unclaimedPrefetchJobTakesOnTheSizeOfTheFirstRequest() {
+        RemoteImageLoaderJob job = addJob(IMAGE_URL, 50, 50, null);
+        job.setPrefetch(false);
+
+        assertSame(job, inFlightJobs.attach(IMAGE_URL, 300, 200, QUALITY,
+                newHandler(IMAGE_URL)));
+        assertEquals(300, job.getWidth());
+        assertEquals(200, job.getHeight());
+    }
+
+    @Test
+    public void detachingKeepsTheJobWhileOtherHandlersWaitForIt() {
+        RemoteImageLoaderHandler first = newHandler(IMAGE_URL);
+        RemoteImageLoaderHandler second = newHandler(IMAGE_URL);
+        RemoteImageLoaderJob job = addJob(IMAGE_URL, 200, 200, first);
+        inFlightJobs.attach(IMAGE_URL, 200, 200, QUALITY, second);
+
+        assertNull(inFlightJobs.detach(first));
+        assertTrue(inFlightJobs.contains(IMAGE_URL));
+        assertSame(job, inFlightJobs.find(second));
+
+        assertSame(job, inFlightJobs.detach(second));
+        assertFalse(inFlightJobs.contains(IMAGE_URL));
+        assertEquals(0, inFlightJobs.size());
+    }
+
+    @Test
+    public void detachingAnUnknownHandlerDoesNothing() {
+        addJob(IMAGE_URL, 200, 200, newHandler(IMAGE_URL));
+
+        assertNull(inFlightJobs.detach(newHandler(IMAGE_URL)));
+        assertEquals(1, inFlightJobs.size());
+    }
+
+    @Test
+    public void forgetsAnImageOnceTheLastOfItsJobsIsRemoved() {
+        RemoteImageLoaderJob small = addJob(IMAGE_URL, 100, 100, newHandler(IMAGE_URL));
+        RemoteImageLoaderJob large = addJob(IMAGE_URL, 400, 400, newHandler(IMAGE_URL));
+        assertEquals(2, inFlightJobs.size());
+
+        inFlightJobs.remove(small);
+        assertTrue(inFlightJobs.contains(IMAGE_URL));
+        assertEquals(1, inFlightJobs.size());
+
+        inFlightJobs.remove(large);
+        assertFalse(inFlightJobs.contains(IMAGE_URL));
+        assertEquals(0, inFlightJobs.size());
+    }
+
+    @Test
+    public void cancelAllCancelsAndForgetsAllJobs() {
+        RemoteImageLoaderJob job = addJob(IMAGE_URL, 100, 100, newHandler(IMAGE_URL));
+        RemoteImageLoaderJob otherJob = addJob(OTHER_IMAGE_URL, 100, 100,
+                newHandler(OTHER_IMAGE_URL));
+
+        inFlightJobs.cancelAll();
+
+        assertTrue(job.isCancelled());
+        assertTrue(otherJob.isCancelled());
+        assertEquals(0, inFlightJobs.size());
+        assertFalse(inFlightJobs.contains(IMAGE_URL));
+    }
+
+    private RemoteImageLoaderHandler newHandler(String imageUrl) {
+        return new RemoteImageLoaderHandler(new ImageView(Robolectric.application), imageUrl,
+                null);
+    }
+
+    private RemoteImageLoaderJob addJob(String imageUrl, int width, int height,
+            RemoteImageLoaderHandler handler) {
+        RemoteImageLoaderJob job = new RemoteImageLoaderJob(imageUrl, width, height, null,
+                QUALITY, handler, null, 3, 8192);
+        inFlightJobs.add(job);
+        return job;
+    }
+}
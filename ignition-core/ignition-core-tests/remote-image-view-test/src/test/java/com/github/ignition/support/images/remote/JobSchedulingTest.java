@@ -0,0 +1,142 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class JobSchedulingTest {
+
+    // the simulated list: how many rows fit on screen, how many rows the user scrolls by (one per
+    // tick), and how many ticks it takes the single worker to load an image
+    private static final int VISIBLE_ROWS = 5;
+    private static final int SCROLL_TICKS = 30;
+    private static final int TICKS_PER_IMAGE = 3;
+
+    @Test
+    public void runsJobsOfEqualPriorityNewestFirst() {
+        RemoteImageLoaderJob older = newJob(0);
+        RemoteImageLoaderJob newer = newJob(1);
+
+        assertSame(newer, pollFirst(older, newer));
+    }
+
+    @Test
+    public void runsJobsByPriorityFirst() {
+        RemoteImageLoaderJob visible = newJob(0);
+        RemoteImageLoaderJob prefetch = newJob(1);
+        prefetch.setPriority(RemoteImageLoader.PRIORITY_PREFETCH);
+        RemoteImageLoaderJob background = newJob(2);
+        background.setPriority(RemoteImageLoader.PRIORITY_BACKGROUND);
+
+        PriorityQueue<RemoteImageLoaderJob> queue = new PriorityQueue<RemoteImageLoaderJob>();
+        queue.add(background);
+        queue.add(prefetch);
+        queue.add(visible);
+
+        assertSame(visible, queue.poll());
+        assertSame(prefetch, queue.poll());
+        assertSame(background, queue.poll());
+    }
+
+    @Test
+    public void jobScrolledBackIntoViewBecomesTheNewestOfItsPriority() {
+        RemoteImageLoaderJob scrolledBack = newJob(0);
+        scrolledBack.setPriority(RemoteImageLoader.PRIORITY_BACKGROUND);
+        RemoteImageLoaderJob visible = newJob(1);
+
+        scrolledBack.setPriority(RemoteImageLoader.PRIORITY_VISIBLE);
+
+        assertSame(scrolledBack, pollFirst(visible, scrolledBack));
+    }
+
+    /**
+     * Measures the time from request to display of the images on screen once a scroll through a
+     * list stops, with a worker that's slower than the scroll.
+     */
+    @Test
+    public void showsImagesOnScreenAfterAScrollBeforeThoseScrolledPast() {
+        int prioritizedLatency = simulateScroll(new PriorityQueue<RemoteImageLoaderJob>(), true);
+        int fifoLatency = simulateScroll(new LinkedList<RemoteImageLoaderJob>(), false);
+
+        // the rows left on screen are loaded right after the job that's already running
+        assertTrue("latency was " + prioritizedLatency + " ticks",
+                prioritizedLatency <= (VISIBLE_ROWS + 1) * TICKS_PER_IMAGE);
+        assertTrue("latency was " + prioritizedLatency + " vs. " + fifoLatency + " ticks",
+                prioritizedLatency < fifoLatency);
+    }
+
+    /**
+     * @return the longest time in ticks from request to display of the rows on screen once the
+     *         scroll has stopped
+     */
+    private int simulateScroll(Queue<RemoteImageLoaderJob> queue, boolean demoteScrolledPast) {
+        List<RemoteImageLoaderJob> jobs = new ArrayList<RemoteImageLoaderJob>();
+        List<Integer> requestedAt = new ArrayList<Integer>();
+        int[] shownAt = new int[SCROLL_TICKS + VISIBLE_ROWS];
+
+        int firstVisibleRow = 0;
+        for (int row = 0; row < VISIBLE_ROWS; row++) {
+            request(queue, jobs, requestedAt, row, 0);
+        }
+
+        RemoteImageLoaderJob running = null;
+        int runningUntil = 0;
+        for (int tick = 0; tick <= SCROLL_TICKS || running != null || !queue.isEmpty(); tick++) {
+            if (tick > 0 && tick <= SCROLL_TICKS) {
+                RemoteImageLoaderJob scrolledPast = jobs.get(firstVisibleRow);
+                // what the loader does for views scrolled off screen
+                if (demoteScrolledPast && queue.remove(scrolledPast)) {
+                    scrolledPast.setPriority(RemoteImageLoader.PRIORITY_BACKGROUND);
+                    queue.add(scrolledPast);
+                }
+                firstVisibleRow++;
+                request(queue, jobs, requestedAt, firstVisibleRow + VISIBLE_ROWS - 1, tick);
+            }
+            if (running != null && tick >= runningUntil) {
+                shownAt[jobs.indexOf(running)] = tick;
+                running = null;
+            }
+            if (running == null && !queue.isEmpty()) {
+                running = queue.poll();
+                runningUntil = tick + TICKS_PER_IMAGE;
+            }
+        }
+
+        int latency = 0;
+        for (int row = firstVisibleRow; row < firstVisibleRow + VISIBLE_ROWS; row++) {
+            latency = Math.max(latency, shownAt[row] - requestedAt.get(row));
+        }
+        return latency;
+    }
+
+    private void request(Queue<RemoteImageLoaderJob> queue, List<RemoteImageLoaderJob> jobs,
+            List<Integer> requestedAt, int row, int tick) {
+        RemoteImageLoaderJob job = newJob(row);
+        jobs.add(job);
+        requestedAt.add(tick);
+        queue.add(job);
+    }
+
+    private RemoteImageLoaderJob pollFirst(RemoteImageLoaderJob... jobs) {
+        PriorityQueue<RemoteImageLoaderJob> queue = new PriorityQueue<RemoteImageLoaderJob>();
+        for (RemoteImageLoaderJob job : jobs) {
+            queue.add(job);
+        }
+        return queue.poll();
+    }
+
+    private RemoteImageLoaderJob newJob(int row) {
+        return new RemoteImageLoaderJob("http://example.com/" + row + ".png", null, null, 3, 8192);
+    }
+}
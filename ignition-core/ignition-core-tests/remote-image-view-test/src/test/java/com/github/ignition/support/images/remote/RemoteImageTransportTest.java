@@ -0,0 +1,63 @@
+package com.github.ignition.support.images.remote;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.github.ignition.core.test.IgnitionCoreTestRunner;
+
+@RunWith(IgnitionCoreTestRunner.class)
+public class RemoteImageTransportTest {
+
+    private static final String HOST_NAME = "images.example.com";
+
+    private RemoteImageTransport transport;
+
+    @Before
+    public void before() {
+        transport = new RemoteImageTransport(4, 8);
+        transport.setMaxConnectionsForHost(HOST_NAME, 6);
+    }
+
+    @Test
+    public void limitsConnectionsForUrlsWithoutAPort() {
+        assertEquals(6, transport.getMaxConnectionsForRoute(route("http://" + HOST_NAME
+                + "/x.png", false)));
+        assertEquals(6, transport.getMaxConnectionsForRoute(route("https://" + HOST_NAME
+                + "/x.png", true)));
+    }
+
+    @Test
+    public void limitsConnectionsForUrlsWithTheDefaultPort() {
+        assertEquals(6, transport.getMaxConnectionsForRoute(route("http://" + HOST_NAME
+                + ":80/x.png", false)));
+        assertEquals(6, transport.getMaxConnectionsForRoute(route("https://" + HOST_NAME
+                + ":443/x.png", true)));
+    }
+
+    @Test
+    public void otherHostsGetTheDefaultLimit() {
+        assertEquals(4, transport.getMaxConnectionsForRoute(route("http://example.com/x.png",
+                false)));
+
+        transport.setMaxConnectionsPerHost(2);
+
+        assertEquals(2, transport.getMaxConnectionsForRoute(route("http://example.com/x.png",
+                false)));
+    }
+
+    /**
+     * @return the route the HTTP client takes for the given URL
+     */
+    private HttpRoute route(String url, boolean secure) {
+        HttpHost target = URIUtils.extractHost(URI.create(url));
+        return new HttpRoute(target, null, secure);
+    }
+}
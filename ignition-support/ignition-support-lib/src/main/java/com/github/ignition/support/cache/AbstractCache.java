@@ -115,7 +115,7 @@ public abstract class AbstractCache<KeyT, ValT> implements Map<KeyT, ValT> {
         	
         	if (ageInMinutes >= expirationInMinutes) {
         		Log.d(name, "DISK cache expiration for file " + f.toString());
-        		f.delete();
+        		onDiskCacheFileExpired(f, ageInMinutes);
         	}
         }
 	}
@@ -243,7 +243,7 @@ public abstract class AbstractCache<KeyT, ValT> implements Map<KeyT, ValT> {
         }
     }
 
-    private File getFileForKey(KeyT key) {
+    protected File getFileForKey(KeyT key) {
         return new File(diskCacheDirectory + "/" + getFileNameForKey(key));
     }
 
@@ -266,19 +266,8 @@ public abstract class AbstractCache<KeyT, ValT> implements Map<KeyT, ValT> {
         }
 
         // memory miss, try reading from disk
-        File file = getFileForKey(key);
-        if (file.exists()) {
-        	// if file older than expirationInMinutes, remove it
-        	long lastModified = file.lastModified();
-        	Date now = new Date();
-        	long ageInMinutes = ((now.getTime() - lastModified) / (1000*60));
-        	
-        	if (ageInMinutes >= expirationInMinutes) {
-        		Log.d(name, "DISK cache expiration for file " + file.toString());
-        		file.delete();
-        		return null;
-        	}
-        	
+        File file = getFileIfCached(key);
+        if (file != null) {
         	// disk hit
             Log.d(name, "DISK cache hit for " + key.toString());
             try {
@@ -299,6 +288,79 @@ public abstract class AbstractCache<KeyT, ValT> implements Map<KeyT, ValT> {
         return null;
     }
 
+    /**
+     * Reads a value from the in-memory cache only. The disk cache is not probed.
+     * 
+     * @param elementKey
+     *            the cache key
+     * @return the value held in memory, or null if it isn't
+     */
+    @SuppressWarnings("unchecked")
+    protected synchronized ValT getFromMemory(Object elementKey) {
+        return cache.get((KeyT) elementKey);
+    }
+
+    /**
+     * Only meaningful if disk caching is enabled. See {@link #enableDiskCache}. Returns the file
+     * under which the value for the given key has been persisted, without reading it. This allows
+     * subclasses to stream large values straight from disk. A file that has expired is removed and
+     * treated as a miss.
+     * 
+     * @param key
+     *            the cache key
+     * @return the cache file, or null if the value is not cached to disk
+     */
+    protected synchronized File getFileIfCached(KeyT key) {
+        if (!isDiskCacheEnabled) {
+            return null;
+        }
+        File file = getFileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+        // if file older than expirationInMinutes, remove it
+        long lastModified = file.lastModified();
+        Date now = new Date();
+        long ageInMinutes = ((now.getTime() - lastModified) / (1000*60));
+
+        if (ageInMinutes >= expirationInMinutes) {
+            Log.d(name, "DISK cache expiration for file " + file.toString());
+            onDiskCacheFileExpired(file, ageInMinutes);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Called for every file in the disk cache directory that is older than the cache's expiration
+     * time. The file is no longer served from the cache either way, but subclasses may choose to
+     * keep it around, e.g. to revalidate it with its origin. The default implementation deletes
+     * it.
+     * 
+     * @param file
+     *            the expired file
+     * @param ageInMinutes
+     *            the age of the file
+     */
+    protected void onDiskCacheFileExpired(File file, long ageInMinutes) {
+        file.delete();
+    }
+
+    /**
+     * @return the time in minutes after which elements expire
+     */
+    public long getExpirationInMinutes() {
+        return expirationInMinutes;
+    }
+
+    /**
+     * Writes an element to the in-memory cache only, e.g. because it has already been persisted to
+     * the value's cache file by other means.
+     */
+    protected synchronized void putInMemory(KeyT key, ValT value) {
+        cache.put(key, value);
+    }
+
     /**
      * Writes an element to the cache. NOTE: If disk caching is enabled, this will write through to
      * the disk, which may introduce a performance penalty.
@@ -339,7 +401,8 @@ public abstract class AbstractCache<KeyT, ValT> implements Map<KeyT, ValT> {
     }
 
     /**
-     * Checks if a value is present in the disk cache. This method ignores the memory cache.
+     * Checks if a value is present in the disk cache. This method ignores the memory cache. Like a
+     * read, this treats a file that has expired as a miss.
      * 
      * @param key
      *            the cache key
@@ -348,7 +411,7 @@ public abstract class AbstractCache<KeyT, ValT> implements Map<KeyT, ValT> {
      */
     @SuppressWarnings("unchecked")
     public synchronized boolean containsKeyOnDisk(Object key) {
-        return isDiskCacheEnabled && getFileForKey((KeyT) key).exists();
+        return getFileIfCached((KeyT) key) != null;
     }
 
     /**
@@ -17,15 +17,24 @@ package com.github.ignition.support.cache;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.github.ignition.support.images.remote.BitmapDecodePolicy;
 import com.github.ignition.support.images.remote.BitmapHelper;
+import com.github.ignition.support.images.remote.ImageInfo;
+import com.github.ignition.support.images.remote.ImageValidators;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.Log;
 
 /**
  * Implements a cache capable of caching image files. It exposes helper methods to immediately
@@ -36,8 +45,36 @@ import android.graphics.BitmapFactory;
  */
 public class ImageCache extends AbstractCache<String, byte[]> {
 
+	private static final String LOG_TAG = "ImageCache";
+
+	// image infos are persisted next to the image file they describe, using this file suffix
+	private static final String INFO_FILE_SUFFIX = ".meta";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+	// validators for revalidating expired images are persisted with this file suffix
+	private static final String VALIDATORS_FILE_SUFFIX = ".validators";
+
+	// expired images that can be revalidated are kept for up to a week after their last validation
+	private static final long DEFAULT_REVALIDATION_WINDOW_MINUTES = 7 * 24 * 60;
+
 	private final int maxWidth;
 	private final int maxHeight;
+
+	private BitmapDecodePolicy decodePolicy = new BitmapDecodePolicy();
+
+	private long revalidationWindowInMinutes = DEFAULT_REVALIDATION_WINDOW_MINUTES;
+
+	// only ever holds complete infos, which are never modified once recorded
+	private final ConcurrentMap<String, ImageInfo> imageInfos = new ConcurrentHashMap<String, ImageInfo>();
+
+	// decode statistics, see getDecodedBitmapBytes() and getDecodedBitmapBytesSaved()
+	private final AtomicLong numDecodedBitmaps = new AtomicLong();
+	private final AtomicLong decodedBitmapBytes = new AtomicLong();
+	private final AtomicLong decodedBitmapBytesSaved = new AtomicLong();
+
+	// revalidation statistics, see getNumRevalidations() and getRevalidationBytesSaved()
+	private final AtomicLong numRevalidations = new AtomicLong();
+	private final AtomicLong numNotModified = new AtomicLong();
+	private final AtomicLong revalidationBytesSaved = new AtomicLong();
 	
     public ImageCache(int initialCapacity, long expirationInMinutes, int maxConcurrentThreads, int maxWidth, int maxHeight) {
         super("ImageCache", initialCapacity, expirationInMinutes, maxConcurrentThreads);
@@ -79,23 +116,522 @@ public class ImageCache extends AbstractCache<String, byte[]> {
      * @param elementKey
      * @return
      */
-    public synchronized Bitmap getBitmap(Object elementKey) {
+    public Bitmap getBitmap(Object elementKey) {
     	return getScaledBitmap(elementKey, maxWidth, maxHeight);
     }
+
+    /**
+     * Like {@link #getBitmap(Object)}, but passes the given quality hint to this cache's
+     * {@link BitmapDecodePolicy}.
+     */
+    public Bitmap getBitmap(Object elementKey, int quality) {
+    	return getScaledBitmap(elementKey, maxWidth, maxHeight, quality);
+    }
     
-    public synchronized Bitmap getScaledBitmap(Object elementKey, int width, int height) {
-    	byte[] imageData = super.get(elementKey);
+    /**
+     * Returns the bitmap for this particular key, scaled down to fit the given size, or null if it's
+     * not in the cache. On a disk hit, the image is decoded straight from the cache file, i.e. the
+     * encoded image data is never read into memory as a whole. Decoding happens outside the cache
+     * lock, so concurrent lookups aren't blocked by a slow decode.
+     * 
+     * @param elementKey
+     * @param width
+     * @param height
+     * @return
+     */
+    public Bitmap getScaledBitmap(Object elementKey, int width, int height) {
+    	return getScaledBitmap(elementKey, width, height, BitmapDecodePolicy.QUALITY_DEFAULT);
+    }
+
+    /**
+     * Like {@link #getScaledBitmap(Object, int, int)}, but passes the given quality hint to this
+     * cache's {@link BitmapDecodePolicy}.
+     * 
+     * @param elementKey
+     * @param width
+     * @param height
+     * @param quality
+     *            one of the BitmapDecodePolicy.QUALITY_* hints
+     * @return
+     */
+    public Bitmap getScaledBitmap(Object elementKey, int width, int height, int quality) {
+    	byte[] imageData = getFromMemory(elementKey);
+    	File imageFile = null;
     	if (imageData == null) {
-    		return null;
+    		imageFile = getFileIfCached((String) elementKey);
+    		if (imageFile == null) {
+    			return null;
+    		}
+    		Log.d(LOG_TAG, "DISK cache hit for " + elementKey);
     	}
     	
+    	String imageUrl = (String) elementKey;
+    	ImageInfo info = getImageInfo(imageUrl);
+    	boolean knewImageInfo = info != null;
+    	if (!knewImageInfo) {
+    		info = new ImageInfo();
+    	}
+
     	try {
-    		return BitmapHelper.decodeAndResize(imageData, width, height);
+    		Bitmap bitmap;
+    		if (imageData != null) {
+    			bitmap = BitmapHelper.decodeAndResize(imageData, width, height, decodePolicy,
+    					quality, info);
+    		} else {
+    			bitmap = BitmapHelper.decodeAndResize(imageFile, width, height, decodePolicy,
+    					quality, info);
+    		}
+    		if (!knewImageInfo) {
+    			recordImageInfo(imageUrl, info, true);
+    		}
+    		return recordDecode(bitmap);
     	} catch (OutOfMemoryError oome) {
     		return null;
     	}
     }
 
+    /**
+     * Returns the dimensions, format and transparency of the given image, if it has been decoded
+     * through this cache before. This is available before the image is decoded, so it can be used
+     * to reserve space in a layout with the image's aspect ratio while it loads.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @return the image info, or null if the image hasn't been decoded by this cache yet
+     */
+    public ImageInfo getImageInfo(String imageUrl) {
+        ImageInfo info = imageInfos.get(imageUrl);
+        if (info == null) {
+            File imageFile = getFileIfCached(imageUrl);
+            if (imageFile != null) {
+                info = readImageInfo(imageFile);
+                if (info != null) {
+                    imageInfos.put(imageUrl, info);
+                }
+            }
+        }
+        return info;
+    }
+
+    private void recordImageInfo(String imageUrl, ImageInfo info, boolean writeToDisk) {
+        if (imageUrl == null || !info.isComplete()) {
+            return;
+        }
+        imageInfos.put(imageUrl, info);
+        if (writeToDisk) {
+            File imageFile = getFileIfCached(imageUrl);
+            if (imageFile != null) {
+                writeImageInfo(imageFile, info);
+            }
+        }
+    }
+
+    private File getImageInfoFile(File imageFile) {
+        return new File(imageFile.getPath() + INFO_FILE_SUFFIX);
+    }
+
+    private ImageInfo readImageInfo(File imageFile) {
+        File infoFile = getImageInfoFile(imageFile);
+        if (!infoFile.exists() || infoFile.lastModified() < imageFile.lastModified()) {
+            // the image was re-written after recording its info, so the info may be stale
+            return null;
+        }
+        DataInputStream istream = null;
+        try {
+            istream = new DataInputStream(new FileInputStream(infoFile));
+            int width = istream.readInt();
+            int height = istream.readInt();
+            String mimeType = istream.readUTF();
+            boolean hasAlpha = istream.readBoolean();
+            return new ImageInfo(width, height, mimeType.length() > 0 ? mimeType : null, hasAlpha);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed reading image info " + infoFile + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (istream != null) {
+                try {
+                    istream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void writeImageInfo(File imageFile, ImageInfo info) {
+        File infoFile = getImageInfoFile(imageFile);
+        try {
+            DataOutputStream ostream = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(infoFile)));
+            ostream.writeInt(info.getWidth());
+            ostream.writeInt(info.getHeight());
+            ostream.writeUTF(info.getMimeType() != null ? info.getMimeType() : "");
+            ostream.writeBoolean(info.hasAlpha());
+            ostream.close();
+            infoFile.deleteOnExit();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed writing image info " + infoFile + ": " + e.getMessage());
+            infoFile.delete();
+        }
+    }
+
+    /**
+     * Writes the image to the cache. If the image has just been decoded through
+     * {@link #decodeBitmap(String, byte[], int, int, int)}, its info is persisted along with it.
+     */
+    @Override
+    public synchronized byte[] put(String imageUrl, byte[] imageData) {
+        byte[] previous = super.put(imageUrl, imageData);
+        updateImageInfoFile(imageUrl);
+        return previous;
+    }
+
+    private void updateImageInfoFile(String imageUrl) {
+        File imageFile = getFileIfCached(imageUrl);
+        if (imageFile != null) {
+            ImageInfo info = imageInfos.get(imageUrl);
+            if (info != null) {
+                writeImageInfo(imageFile, info);
+            } else {
+                getImageInfoFile(imageFile).delete();
+            }
+        }
+    }
+
+    /**
+     * Creates a temporary file in the disk cache directory, to stream an image download into. Once
+     * the download is complete, {@link #commitTempFile(String, File, byte[])} turns it into the
+     * cache entry for the image, so the image never has to be written to disk a second time.
+     * 
+     * @param imageUrl
+     *            the URL of the image that's being downloaded
+     * @return the temporary file, or null if the disk cache is disabled or the file couldn't be
+     *         created
+     */
+    public File createTempFile(String imageUrl) {
+        if (!isDiskCacheEnabled()) {
+            return null;
+        }
+        try {
+            return File.createTempFile(getFileNameForKey(imageUrl), TEMP_FILE_SUFFIX, new File(
+                    diskCacheDirectory));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed creating temp file for " + imageUrl + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Atomically replaces the cache entry for the given image with the given temporary file, which
+     * must have been created by {@link #createTempFile(String)}. Readers will either see the
+     * previous entry or the complete new one, but never a partially written file.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @param tempFile
+     *            the temporary file holding the complete image
+     * @param imageData
+     *            the image data to put into the memory cache, or null
+     */
+    public synchronized void commitTempFile(String imageUrl, File tempFile, byte[] imageData) {
+        File imageFile = getFileForKey(imageUrl);
+        if (!tempFile.renameTo(imageFile)) {
+            Log.w(LOG_TAG, "Failed committing " + tempFile + ", writing image data instead");
+            tempFile.delete();
+            if (imageData != null) {
+                put(imageUrl, imageData);
+            }
+            return;
+        }
+        imageFile.deleteOnExit();
+        if (imageData != null) {
+            putInMemory(imageUrl, imageData);
+        }
+        updateImageInfoFile(imageUrl);
+    }
+
+    /**
+     * Returns the validators of an image that has expired from the disk cache, but has been kept
+     * since it can be revalidated with the server, rather than downloaded again. If the server
+     * confirms that the image hasn't changed, call {@link #refresh(String)}.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @return the validators, or null if there is no expired copy of the image that can be
+     *         revalidated
+     */
+    public ImageValidators getValidatorsForRevalidation(String imageUrl) {
+        File imageFile;
+        synchronized (this) {
+            if (!isDiskCacheEnabled() || getFileIfCached(imageUrl) != null) {
+                // still fresh, or not cached at all
+                return null;
+            }
+            imageFile = getFileForKey(imageUrl);
+            if (!imageFile.exists()) {
+                return null;
+            }
+        }
+        ImageValidators validators = readValidators(imageFile);
+        if (validators != null) {
+            numRevalidations.incrementAndGet();
+        }
+        return validators;
+    }
+
+    /**
+     * Records the validators the server sent along with an image, so that it can be revalidated
+     * once it has expired. Must be called after the image itself has been put into the cache.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @param validators
+     *            the validators, or null if the server sent none
+     */
+    public synchronized void putValidators(String imageUrl, ImageValidators validators) {
+        if (!isDiskCacheEnabled()) {
+            return;
+        }
+        File validatorsFile = getValidatorsFile(getFileForKey(imageUrl));
+        if (validators == null) {
+            validatorsFile.delete();
+            return;
+        }
+        try {
+            DataOutputStream ostream = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(validatorsFile)));
+            ostream.writeUTF(validators.getETag() != null ? validators.getETag() : "");
+            ostream.writeUTF(validators.getLastModified() != null ? validators.getLastModified()
+                    : "");
+            ostream.close();
+            validatorsFile.deleteOnExit();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed writing validators " + validatorsFile + ": " + e.getMessage());
+            validatorsFile.delete();
+        }
+    }
+
+    /**
+     * Marks an expired image as fresh again, after the server has confirmed that it hasn't
+     * changed, i.e. responded to a conditional request with 304 Not Modified.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @return the cache file, or null if it has been removed in the meantime
+     */
+    public synchronized File refresh(String imageUrl) {
+        File imageFile = getFileForKey(imageUrl);
+        long now = System.currentTimeMillis();
+        if (!isDiskCacheEnabled() || !imageFile.setLastModified(now)) {
+            return null;
+        }
+        // the image info is only trusted if it's not older than the image
+        getImageInfoFile(imageFile).setLastModified(now);
+        getValidatorsFile(imageFile).setLastModified(now);
+        numNotModified.incrementAndGet();
+        revalidationBytesSaved.addAndGet(imageFile.length());
+        return imageFile;
+    }
+
+    private File getValidatorsFile(File imageFile) {
+        return new File(imageFile.getPath() + VALIDATORS_FILE_SUFFIX);
+    }
+
+    private ImageValidators readValidators(File imageFile) {
+        File validatorsFile = getValidatorsFile(imageFile);
+        if (!validatorsFile.exists()) {
+            return null;
+        }
+        DataInputStream istream = null;
+        try {
+            istream = new DataInputStream(new FileInputStream(validatorsFile));
+            String eTag = istream.readUTF();
+            String lastModified = istream.readUTF();
+            return new ImageValidators(eTag.length() > 0 ? eTag : null,
+                    lastModified.length() > 0 ? lastModified : null);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed reading validators " + validatorsFile + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (istream != null) {
+                try {
+                    istream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps expired images that can be revalidated, along with their info and validators, for up
+     * to the revalidation window. Everything else is deleted.
+     */
+    @Override
+    protected void onDiskCacheFileExpired(File file, long ageInMinutes) {
+        if (ageInMinutes < revalidationWindowInMinutes) {
+            String path = file.getPath();
+            File imageFile = file;
+            if (path.endsWith(VALIDATORS_FILE_SUFFIX) || path.endsWith(INFO_FILE_SUFFIX)) {
+                imageFile = new File(path.substring(0, path.lastIndexOf('.')));
+            }
+            if (!imageFile.getPath().endsWith(TEMP_FILE_SUFFIX) && imageFile.exists()
+                    && getValidatorsFile(imageFile).exists()) {
+                return;
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * @param minutes
+     *            for how long after their last validation expired images are kept, so they can be
+     *            revalidated with the server rather than downloaded again, if the server sent an
+     *            ETag or Last-Modified header for them (default: 7 days). Should be larger than the
+     *            cache's expiration time.
+     */
+    public void setRevalidationWindow(long minutes) {
+        this.revalidationWindowInMinutes = minutes;
+    }
+
+    /**
+     * @return how many expired images were revalidated with the server, i.e. how many conditional
+     *         requests have been sent
+     */
+    public long getNumRevalidations() {
+        return numRevalidations.get();
+    }
+
+    /**
+     * @return how many revalidated images turned out to be unchanged, i.e. how many downloads were
+     *         saved
+     */
+    public long getNumNotModified() {
+        return numNotModified.get();
+    }
+
+    /**
+     * @return how many bytes of image data did not have to be downloaded again thanks to
+     *         revalidation
+     */
+    public long getRevalidationBytesSaved() {
+        return revalidationBytesSaved.get();
+    }
+
+    @Override
+    public synchronized byte[] remove(Object imageUrl) {
+        imageInfos.remove(imageUrl);
+        if (isDiskCacheEnabled()) {
+            File imageFile = getFileForKey((String) imageUrl);
+            getImageInfoFile(imageFile).delete();
+            getValidatorsFile(imageFile).delete();
+        }
+        return super.remove(imageUrl);
+    }
+
+    @Override
+    public synchronized void clear(boolean removeFromDisk) {
+        imageInfos.clear();
+        super.clear(removeFromDisk);
+    }
+
+    /**
+     * Returns the disk cache file holding the encoded image for the given URL, e.g. to decode
+     * regions of it without loading the whole image. Only meaningful if the disk cache is enabled.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @return the cache file, or null if the image is not cached to disk
+     */
+    public File getCachedImageFile(String imageUrl) {
+        return getFileIfCached(imageUrl);
+    }
+
+    /**
+     * Decodes the given image data using this cache's {@link BitmapDecodePolicy}, and accounts
+     * for the result in the decode statistics. Use this for image data that is about to be cached.
+     * 
+     * @param imageData
+     *            the encoded image
+     * @param width
+     *            the maximum width, or a value <= 0 to decode at full size
+     * @param height
+     *            the maximum height, or a value <= 0 to decode at full size
+     * @param quality
+     *            one of the BitmapDecodePolicy.QUALITY_* hints
+     * @return the decoded bitmap, or null if decoding failed
+     */
+    public Bitmap decodeBitmap(byte[] imageData, int width, int height, int quality)
+            throws OutOfMemoryError {
+        return decodeBitmap(null, imageData, width, height, quality);
+    }
+
+    /**
+     * Like {@link #decodeBitmap(byte[], int, int, int)}, but also records the image's
+     * {@link ImageInfo} under the given URL, to be persisted when the image data is put into the
+     * cache.
+     * 
+     * @param imageUrl
+     *            the URL the image data was downloaded from, or null
+     */
+    public Bitmap decodeBitmap(String imageUrl, byte[] imageData, int width, int height,
+            int quality) throws OutOfMemoryError {
+        // this is fresh data, so don't trust what we might know about a previous version of it
+        ImageInfo info = new ImageInfo();
+        Bitmap bitmap;
+        if (width > 0 && height > 0) {
+            bitmap = BitmapHelper.decodeAndResize(imageData, width, height, decodePolicy, quality,
+                    info);
+        } else {
+            bitmap = BitmapHelper.decode(imageData, decodePolicy, quality, info);
+        }
+        if (bitmap != null) {
+            recordImageInfo(imageUrl, info, false);
+        }
+        return recordDecode(bitmap);
+    }
+
+    private Bitmap recordDecode(Bitmap bitmap) {
+        if (bitmap != null) {
+            long bytes = (long) bitmap.getRowBytes() * bitmap.getHeight();
+            long fullDepthBytes = 4L * bitmap.getWidth() * bitmap.getHeight();
+            numDecodedBitmaps.incrementAndGet();
+            decodedBitmapBytes.addAndGet(bytes);
+            decodedBitmapBytesSaved.addAndGet(Math.max(0, fullDepthBytes - bytes));
+        }
+        return bitmap;
+    }
+
+    public void setDecodePolicy(BitmapDecodePolicy decodePolicy) {
+        this.decodePolicy = decodePolicy;
+    }
+
+    public BitmapDecodePolicy getDecodePolicy() {
+        return decodePolicy;
+    }
+
+    /**
+     * @return how many bitmaps have been decoded through this cache
+     */
+    public long getNumDecodedBitmaps() {
+        return numDecodedBitmaps.get();
+    }
+
+    /**
+     * @return the total pixel memory, in bytes, of all bitmaps decoded through this cache
+     */
+    public long getDecodedBitmapBytes() {
+        return decodedBitmapBytes.get();
+    }
+
+    /**
+     * @return how many bytes of pixel memory the {@link BitmapDecodePolicy} saved compared to
+     *         decoding every bitmap as ARGB_8888
+     */
+    public long getDecodedBitmapBytesSaved() {
+        return decodedBitmapBytesSaved.get();
+    }
+
     @Override
     protected void writeValueToDisk(File file, byte[] imageData) throws IOException {
         BufferedOutputStream ostream = new BufferedOutputStream(new FileOutputStream(file));
@@ -0,0 +1,92 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.ignition.support.cache;
+
+import java.util.concurrent.ConcurrentMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * An in-memory cache for bitmap tiles, i.e. decoded regions of a larger image. Tiles are held via
+ * soft references, so they will be reclaimed when memory gets scarce. The source images the tiles
+ * are decoded from are held by an {@link ImageCache}.
+ */
+public class ImageTileCache {
+
+    private ConcurrentMap<String, Bitmap> cache;
+
+    /**
+     * @param initialCapacity
+     *            the initial number of tiles the cache can hold
+     * @param maxConcurrentThreads
+     *            how many threads you think may at once access the cache
+     */
+    public ImageTileCache(int initialCapacity, int maxConcurrentThreads) {
+        MapMaker mapMaker = new MapMaker();
+        mapMaker.initialCapacity(initialCapacity);
+        mapMaker.concurrencyLevel(maxConcurrentThreads);
+        mapMaker.softValues();
+        this.cache = mapMaker.makeMap();
+    }
+
+    /**
+     * @param imageUrl
+     *            the URL of the source image
+     * @param sampleSize
+     *            the sample size the tile was decoded at
+     * @param region
+     *            the region of the source image the tile covers, in source image pixels
+     * @return the tile, or null if it's not cached
+     */
+    public Bitmap get(String imageUrl, int sampleSize, Rect region) {
+        return cache.get(getKey(imageUrl, sampleSize, region));
+    }
+
+    public void put(String imageUrl, int sampleSize, Rect region, Bitmap tile) {
+        cache.put(getKey(imageUrl, sampleSize, region), tile);
+    }
+
+    /**
+     * Removes all tiles of the given image.
+     * 
+     * @param imageUrl
+     *            the URL of the source image
+     */
+    public void removeAll(String imageUrl) {
+        String prefix = imageUrl + "#";
+        for (String key : cache.keySet()) {
+            if (key.startsWith(prefix)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private String getKey(String imageUrl, int sampleSize, Rect region) {
+        return imageUrl + "#" + sampleSize + ":" + region.left + "," + region.top + ","
+                + region.right + "," + region.bottom;
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.ignition.support.images.remote;
+
+import android.graphics.Bitmap;
+
+/**
+ * Decides which {@link Bitmap.Config} an image is decoded to. By default, images that are known to
+ * be opaque JPEGs are decoded to {@link Bitmap.Config#RGB_565}, which takes half the memory of
+ * {@link Bitmap.Config#ARGB_8888}; everything else keeps full color depth and alpha. Override
+ * {@link #selectConfig(String, boolean, int)} to implement your own policy.
+ */
+public class BitmapDecodePolicy {
+
+    /**
+     * Decode opaque images to 16 bits per pixel, regardless of their format.
+     */
+    public static final int QUALITY_LOW = 0;
+
+    /**
+     * Decode opaque photos (JPEG) to 16 bits per pixel, but keep full color depth for lossless
+     * formats such as PNG, which are often used for gradients and UI graphics.
+     */
+    public static final int QUALITY_DEFAULT = 1;
+
+    /**
+     * Always decode to 32 bits per pixel.
+     */
+    public static final int QUALITY_HIGH = 2;
+
+    /**
+     * Picks the bitmap config to decode an image to.
+     * 
+     * @param mimeType
+     *            the image format as sniffed from its header, or null if it isn't known
+     * @param hasAlpha
+     *            whether the image may contain transparent pixels; this is conservative, i.e. it
+     *            is only false if the image is known to be opaque
+     * @param quality
+     *            the quality hint of the request, one of the QUALITY_* constants
+     * @return the bitmap config to decode to
+     */
+    public Bitmap.Config selectConfig(String mimeType, boolean hasAlpha, int quality) {
+        if (hasAlpha || quality >= QUALITY_HIGH) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        if (quality <= QUALITY_LOW || BitmapHelper.MIME_TYPE_JPEG.equals(mimeType)) {
+            return Bitmap.Config.RGB_565;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+}
@@ -1,5 +1,9 @@
 package com.github.ignition.support.images.remote;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
@@ -8,25 +12,192 @@ import android.util.Log;
 public final class BitmapHelper {
 
 	private static final String LOG_TAG = "BitmapHelper";
+
+	// how many bytes of the image header to look at when sniffing the format; for PNGs, this
+	// needs to cover all chunks up to the first IDAT, including a palette's tRNS
+	private static final int HEADER_SNIFF_LENGTH = 1024;
+
+	public static final String MIME_TYPE_JPEG = "image/jpeg";
+	public static final String MIME_TYPE_PNG = "image/png";
+	public static final String MIME_TYPE_GIF = "image/gif";
+	public static final String MIME_TYPE_WEBP = "image/webp";
+
+	private static final BitmapDecodePolicy PREVIEW_DECODE_POLICY = new BitmapDecodePolicy();
 	
 	private BitmapHelper() {}
 	
 	public static Bitmap decodeAndResize(byte[] imageData, int maxWidth, int maxHeight) throws OutOfMemoryError {
+		return decodeAndResize(new ByteArraySource(imageData), maxWidth, maxHeight, null, 0, null);
+	}
+
+	/**
+	 * Like {@link #decodeAndResize(byte[], int, int)}, but lets the given policy pick the bitmap
+	 * config based on the image format, whether it may contain transparency, and the requested
+	 * quality.
+	 * 
+	 * @param imageData
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param policy
+	 *            the decode policy, or null to use the platform default config (ARGB_8888)
+	 * @param quality
+	 *            one of the BitmapDecodePolicy.QUALITY_* hints
+	 * @return
+	 */
+	public static Bitmap decodeAndResize(byte[] imageData, int maxWidth, int maxHeight,
+			BitmapDecodePolicy policy, int quality) throws OutOfMemoryError {
+		return decodeAndResize(new ByteArraySource(imageData), maxWidth, maxHeight, policy, quality, null);
+	}
+
+	/**
+	 * Like {@link #decodeAndResize(byte[], int, int, BitmapDecodePolicy, int)}, but takes what is
+	 * already known about the image into account. If the given info is complete, the image header
+	 * isn't parsed at all before decoding; otherwise, the info is filled in with what was learned
+	 * while decoding.
+	 * 
+	 * @param info
+	 *            the known image properties, or an empty {@link ImageInfo} to be filled in
+	 */
+	public static Bitmap decodeAndResize(byte[] imageData, int maxWidth, int maxHeight,
+			BitmapDecodePolicy policy, int quality, ImageInfo info) throws OutOfMemoryError {
+		return decodeAndResize(new ByteArraySource(imageData), maxWidth, maxHeight, policy, quality, info);
+	}
+
+	/**
+	 * Decodes the given image data at full size, using the bitmap config selected by the given
+	 * policy.
+	 * 
+	 * @param imageData
+	 * @param policy
+	 *            the decode policy, or null to use the platform default config (ARGB_8888)
+	 * @param quality
+	 *            one of the BitmapDecodePolicy.QUALITY_* hints
+	 * @return the decoded bitmap, or null if the data could not be decoded
+	 */
+	public static Bitmap decode(byte[] imageData, BitmapDecodePolicy policy, int quality) throws OutOfMemoryError {
+		return decode(imageData, policy, quality, null);
+	}
+
+	/**
+	 * Like {@link #decode(byte[], BitmapDecodePolicy, int)}, but fills in the given info with
+	 * what was learned while decoding, or uses it to skip parsing the image header.
+	 * 
+	 * @see #decodeAndResize(byte[], int, int, BitmapDecodePolicy, int, ImageInfo)
+	 */
+	public static Bitmap decode(byte[] imageData, BitmapDecodePolicy policy, int quality,
+			ImageInfo info) throws OutOfMemoryError {
+		ImageSource source = new ByteArraySource(imageData);
+		Options opts = newDecodeOptions(source, policy, quality, info);
+		Bitmap bmp = decodeBitmapWithRetry(source, opts);
+		if (bmp != null && info != null) {
+			info.width = bmp.getWidth();
+			info.height = bmp.getHeight();
+		}
+		return bmp;
+	}
+
+	/**
+	 * Like {@link #decodeAndResize(byte[], int, int)}, but decodes straight from the given file's
+	 * descriptor, so the encoded image never has to be read into a byte array on the heap.
+	 * 
+	 * @param imageFile
+	 *            the file holding the encoded image, e.g. a disk cache entry
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @return the decoded bitmap, or null if the file could not be read or decoded
+	 */
+	public static Bitmap decodeAndResize(File imageFile, int maxWidth, int maxHeight) throws OutOfMemoryError {
+		return decodeAndResize(new FileSource(imageFile), maxWidth, maxHeight, null, 0, null);
+	}
+
+	/**
+	 * Like {@link #decodeAndResize(File, int, int)}, but lets the given policy pick the bitmap
+	 * config.
+	 * 
+	 * @see #decodeAndResize(byte[], int, int, BitmapDecodePolicy, int)
+	 */
+	public static Bitmap decodeAndResize(File imageFile, int maxWidth, int maxHeight,
+			BitmapDecodePolicy policy, int quality) throws OutOfMemoryError {
+		return decodeAndResize(new FileSource(imageFile), maxWidth, maxHeight, policy, quality, null);
+	}
+
+	/**
+	 * Like {@link #decodeAndResize(File, int, int, BitmapDecodePolicy, int)}, but takes what is
+	 * already known about the image into account.
+	 * 
+	 * @see #decodeAndResize(byte[], int, int, BitmapDecodePolicy, int, ImageInfo)
+	 */
+	public static Bitmap decodeAndResize(File imageFile, int maxWidth, int maxHeight,
+			BitmapDecodePolicy policy, int quality, ImageInfo info) throws OutOfMemoryError {
+		return decodeAndResize(new FileSource(imageFile), maxWidth, maxHeight, policy, quality, info);
+	}
+
+	/**
+	 * Decodes a low resolution preview of a possibly incomplete image, e.g. from the bytes of an
+	 * image download still in progress. Depending on the image format, the parts of the image that
+	 * are missing are left blank, or will be missing in detail (progressive JPEGs, interlaced PNGs).
+	 * 
+	 * @param imageData
+	 *            a buffer holding the first bytes of the encoded image
+	 * @param length
+	 *            the number of valid bytes in the buffer
+	 * @param sampleSize
+	 *            the subsampling factor, e.g. 8 to decode at an eighth of the full resolution
+	 * @return the preview, or null if the available data wasn't sufficient for a preview
+	 */
+	public static Bitmap decodePreview(byte[] imageData, int length, int sampleSize) {
+		return decodePreview(new ByteArraySource(imageData, length), sampleSize);
+	}
+
+	/**
+	 * Like {@link #decodePreview(byte[], int, int)}, but decodes from the given file.
+	 */
+	public static Bitmap decodePreview(File imageFile, int sampleSize) {
+		return decodePreview(new FileSource(imageFile), sampleSize);
+	}
+
+	private static Bitmap decodePreview(ImageSource source, int sampleSize) {
+		Options opts = newDecodeOptions(source, PREVIEW_DECODE_POLICY, BitmapDecodePolicy.QUALITY_LOW, null);
+		opts.inSampleSize = sampleSize;
+		try {
+			return source.decode(opts);
+		} catch (OutOfMemoryError e) {
+			// a preview is optional, so don't bother trying to free memory for it
+			Log.w(LOG_TAG, "Out of memory error while decoding image preview, skipping it");
+			return null;
+		}
+	}
+
+	private static Bitmap decodeAndResize(ImageSource source, int maxWidth, int maxHeight,
+			BitmapDecodePolicy policy, int quality, ImageInfo info) throws OutOfMemoryError {
 		
 		BitmapFactory.Options o = null;
 		int scale = 1;
 		
 		if (maxWidth > 0 & maxHeight > 0) {
-			o = new BitmapFactory.Options();
-			// get the original size
-			o.inJustDecodeBounds = true;
-			BitmapFactory.decodeByteArray(imageData, 0, imageData.length, o);
+			int imageWidth, imageHeight;
+			if (info != null && info.width > 0 && info.height > 0) {
+				// we've seen this image before, no need to parse it for its size
+				imageWidth = info.width;
+				imageHeight = info.height;
+			} else {
+				o = new BitmapFactory.Options();
+				// get the original size
+				o.inJustDecodeBounds = true;
+				source.decode(o);
+				imageWidth = o.outWidth;
+				imageHeight = o.outHeight;
+				if (info != null && imageWidth > 0 && imageHeight > 0) {
+					info.width = imageWidth;
+					info.height = imageHeight;
+				}
+			}
 
-			if (o.outWidth > maxWidth || o.outHeight > maxHeight) {
+			if (imageWidth > maxWidth || imageHeight > maxHeight) {
 				// don't scale
 				// Find the correct scale value. It should be the power of
 				// 2.
-				int widthTmp = o.outWidth, heightTmp = o.outHeight;
+				int widthTmp = imageWidth, heightTmp = imageHeight;
 				while (true) {
 					if ((widthTmp / 2) < maxWidth || (heightTmp / 2) < maxHeight) {
 						break;
@@ -50,17 +221,18 @@ public final class BitmapHelper {
 			return null;
 		}
 		
-		o = new BitmapFactory.Options();
+		o = newDecodeOptions(source, policy, quality, info);
 		o.inSampleSize = scale;
 
-		Bitmap bmp = decodeBitmapWithRetry(imageData, o);
+		Bitmap bmp = decodeBitmapWithRetry(source, o);
 
 		if (bmp == null) {
 			Log
 					.w(LOG_TAG,
 							"Null decoded image.. might be because of scale factor??  trying again without downsizing");
 			// get the raw version
-			bmp = decodeBitmapWithRetry(imageData, null);
+			o.inSampleSize = 1;
+			bmp = decodeBitmapWithRetry(source, o);
 		}
 
 		if (bmp == null) {
@@ -80,9 +252,101 @@ public final class BitmapHelper {
 		}
 	}
 	
-	private static Bitmap decodeBitmapWithRetry(byte[] imageData, Options opts) {
+	private static Options newDecodeOptions(ImageSource source, BitmapDecodePolicy policy, int quality,
+			ImageInfo info) {
+		Options opts = new BitmapFactory.Options();
+		String mimeType = null;
+		boolean hasAlpha = true;
+		if (info != null && info.headerSniffed) {
+			mimeType = info.mimeType;
+			hasAlpha = info.hasAlpha;
+		} else if (policy != null || info != null) {
+			byte[] header = new byte[HEADER_SNIFF_LENGTH];
+			int headerLength = source.readHeader(header);
+			mimeType = sniffMimeType(header, headerLength);
+			hasAlpha = sniffAlpha(mimeType, header, headerLength);
+			if (info != null && headerLength > 0) {
+				info.mimeType = mimeType;
+				info.hasAlpha = hasAlpha;
+				info.headerSniffed = true;
+			}
+		}
+		if (policy != null) {
+			opts.inPreferredConfig = policy.selectConfig(mimeType, hasAlpha, quality);
+			// smoothes out banding in gradients when dropping to 16 bits per pixel
+			opts.inDither = opts.inPreferredConfig != Bitmap.Config.ARGB_8888;
+		}
+		return opts;
+	}
+
+	/**
+	 * Determines the image format from the magic number at the start of the given image header.
+	 * 
+	 * @return the image's MIME type, or null if the format wasn't recognized
+	 */
+	static String sniffMimeType(byte[] header, int length) {
+		if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8
+				&& (header[2] & 0xFF) == 0xFF) {
+			return MIME_TYPE_JPEG;
+		}
+		if (length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N'
+				&& header[3] == 'G') {
+			return MIME_TYPE_PNG;
+		}
+		if (length >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F'
+				&& header[3] == '8') {
+			return MIME_TYPE_GIF;
+		}
+		if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F'
+				&& header[3] == 'F' && header[8] == 'W' && header[9] == 'E' && header[10] == 'B'
+				&& header[11] == 'P') {
+			return MIME_TYPE_WEBP;
+		}
+		return null;
+	}
+
+	/**
+	 * Conservatively determines whether an image may contain transparent pixels. Only returns
+	 * false if the header proves that the image is opaque.
+	 */
+	static boolean sniffAlpha(String mimeType, byte[] header, int length) {
+		if (MIME_TYPE_JPEG.equals(mimeType)) {
+			return false;
+		}
+		if (!MIME_TYPE_PNG.equals(mimeType) || length < 26) {
+			return true;
+		}
+		// the IHDR chunk always comes first; its color type tells whether there's an alpha channel
+		int colorType = header[25] & 0xFF;
+		if (colorType == 4 || colorType == 6) {
+			return true;
+		}
+		// grayscale, RGB and palette images can still be transparent if they carry a tRNS chunk,
+		// which must appear before the first IDAT chunk
+		int offset = 8;
+		while (offset + 8 <= length) {
+			int chunkLength = ((header[offset] & 0xFF) << 24) | ((header[offset + 1] & 0xFF) << 16)
+					| ((header[offset + 2] & 0xFF) << 8) | (header[offset + 3] & 0xFF);
+			String chunkType = new String(header, offset + 4, 4);
+			if ("tRNS".equals(chunkType)) {
+				return true;
+			}
+			if ("IDAT".equals(chunkType)) {
+				return false;
+			}
+			if (chunkLength < 0 || chunkLength > length - offset - 12) {
+				// malformed, or the next chunk starts past the header we've got
+				break;
+			}
+			offset += chunkLength + 12;
+		}
+		// couldn't see the first IDAT chunk, so we can't rule out transparency
+		return true;
+	}
+
+	private static Bitmap decodeBitmapWithRetry(ImageSource source, Options opts) {
     	try {
-    		return BitmapFactory.decodeByteArray(imageData, 0, imageData.length, opts);
+    		return source.decode(opts);
     	} catch (OutOfMemoryError e) {
     		// very unlikely this will help, but try a 2nd time after attempting to kickstart the gc
     		Log.w(LOG_TAG, "Out of memory error while decoding bitmap, trying to trigger a GC");
@@ -90,7 +354,7 @@ public final class BitmapHelper {
     		System.gc();
     		
     		try {
-    			return BitmapFactory.decodeByteArray(imageData, 0, imageData.length, opts);
+    			return source.decode(opts);
     		} catch (OutOfMemoryError e2) {
     			// we tried a few times, nothing worked, caller needs to handle OOM issues in this case
     			Log.w(LOG_TAG, "Tried 2x, still out of memory, can the caller free any memory?");
@@ -138,4 +402,100 @@ public final class BitmapHelper {
     	
     	return null;
     }
+
+	/**
+	 * Where the encoded image data is decoded from. Every call to {@link #decode} starts reading
+	 * from the beginning of the image, so the same source can be used for the bounds and the
+	 * pixel pass.
+	 */
+	private static abstract class ImageSource {
+		abstract Bitmap decode(Options opts);
+
+		/**
+		 * Reads the first bytes of the encoded image into the given buffer.
+		 * 
+		 * @return the number of bytes read
+		 */
+		abstract int readHeader(byte[] buffer);
+	}
+
+	private static final class ByteArraySource extends ImageSource {
+
+		private final byte[] imageData;
+		private final int length;
+
+		ByteArraySource(byte[] imageData) {
+			this(imageData, imageData.length);
+		}
+
+		ByteArraySource(byte[] imageData, int length) {
+			this.imageData = imageData;
+			this.length = length;
+		}
+
+		@Override
+		Bitmap decode(Options opts) {
+			return BitmapFactory.decodeByteArray(imageData, 0, length, opts);
+		}
+
+		@Override
+		int readHeader(byte[] buffer) {
+			int length = Math.min(buffer.length, this.length);
+			System.arraycopy(imageData, 0, buffer, 0, length);
+			return length;
+		}
+	}
+
+	private static final class FileSource extends ImageSource {
+
+		private final File imageFile;
+
+		FileSource(File imageFile) {
+			this.imageFile = imageFile;
+		}
+
+		@Override
+		Bitmap decode(Options opts) {
+			FileInputStream istream = null;
+			try {
+				istream = new FileInputStream(imageFile);
+				return BitmapFactory.decodeFileDescriptor(istream.getFD(), null, opts);
+			} catch (IOException e) {
+				// the file might have been expired or wiped in the meantime; treat as a failed decode
+				Log.w(LOG_TAG, "Failed reading image file " + imageFile + ": " + e.getMessage());
+				return null;
+			} finally {
+				closeQuietly(istream);
+			}
+		}
+
+		@Override
+		int readHeader(byte[] buffer) {
+			FileInputStream istream = null;
+			int length = 0;
+			try {
+				istream = new FileInputStream(imageFile);
+				int bytesRead = 0;
+				while (length < buffer.length
+						&& (bytesRead = istream.read(buffer, length, buffer.length - length)) != -1) {
+					length += bytesRead;
+				}
+			} catch (IOException e) {
+				Log.w(LOG_TAG, "Failed reading header of image file " + imageFile + ": " + e.getMessage());
+			} finally {
+				closeQuietly(istream);
+			}
+			return length;
+		}
+
+		private void closeQuietly(FileInputStream istream) {
+			if (istream != null) {
+				try {
+					istream.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
 }
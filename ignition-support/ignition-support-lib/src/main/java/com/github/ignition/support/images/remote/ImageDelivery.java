@@ -0,0 +1,108 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Hands loaded images over to their handlers on the main thread. Rather than sending a message
+ * with the bitmap parceled into a bundle for every image, images are queued and delivered directly
+ * by a single runnable, which is posted at the start of the next frame. All images that arrive
+ * within the same frame are thus applied to their views in one pass on the UI thread.
+ */
+class ImageDelivery implements Runnable {
+
+    // the interval at which deliveries are batched, i.e. one frame at 60fps
+    private static final long FRAME_INTERVAL_MILLIS = 16;
+
+    private static ImageDelivery instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // deliveries waiting for the next pass, and recycled delivery objects
+    private List<Delivery> pending = new ArrayList<Delivery>();
+    private List<Delivery> delivering = new ArrayList<Delivery>();
+    private final List<Delivery> pool = new ArrayList<Delivery>();
+    private boolean scheduled;
+
+    static synchronized ImageDelivery getInstance() {
+        if (instance == null) {
+            instance = new ImageDelivery();
+        }
+        return instance;
+    }
+
+    /**
+     * Queues the given image for delivery to the given handler, on the main thread.
+     * 
+     * @param what
+     *            {@link RemoteImageLoaderHandler#HANDLER_MESSAGE_ID} or
+     *            {@link RemoteImageLoaderHandler#PREVIEW_MESSAGE_ID}
+     */
+    void deliver(RemoteImageLoaderHandler handler, int what, Bitmap bitmap) {
+        synchronized (this) {
+            Delivery delivery = pool.isEmpty() ? new Delivery() : pool.remove(pool.size() - 1);
+            delivery.handler = handler;
+            delivery.what = what;
+            delivery.bitmap = bitmap;
+            pending.add(delivery);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        long now = SystemClock.uptimeMillis();
+        mainHandler.postAtTime(this, now - now % FRAME_INTERVAL_MILLIS + FRAME_INTERVAL_MILLIS);
+    }
+
+    @Override
+    public void run() {
+        List<Delivery> deliveries;
+        synchronized (this) {
+            scheduled = false;
+            deliveries = pending;
+            pending = delivering;
+            delivering = deliveries;
+        }
+        int size = deliveries.size();
+        for (int i = 0; i < size; i++) {
+            Delivery delivery = deliveries.get(i);
+            delivery.handler.deliverImage(delivery.what, delivery.bitmap);
+        }
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                Delivery delivery = deliveries.get(i);
+                delivery.handler = null;
+                delivery.bitmap = null;
+                pool.add(delivery);
+            }
+        }
+        deliveries.clear();
+    }
+
+    private static final class Delivery {
+        private RemoteImageLoaderHandler handler;
+        private int what;
+        private Bitmap bitmap;
+    }
+}
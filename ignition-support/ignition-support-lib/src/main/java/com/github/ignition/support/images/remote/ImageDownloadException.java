@@ -0,0 +1,57 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+import java.io.IOException;
+
+/**
+ * Thrown if an image download failed in a way that doesn't involve the connection itself, e.g.
+ * because the server responded with an error status. Other than connection failures, most of
+ * these will fail again no matter how often the download is retried.
+ */
+public class ImageDownloadException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * @param message
+     *            the error message
+     * @param statusCode
+     *            the HTTP status code the server responded with, or 0 if the request wasn't sent
+     */
+    public ImageDownloadException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the HTTP status code the server responded with, or 0 if the request wasn't sent
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return true if retrying the download may succeed, i.e. the server responded with a server
+     *         error or asked to come back later
+     */
+    public boolean isRetryable() {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+}
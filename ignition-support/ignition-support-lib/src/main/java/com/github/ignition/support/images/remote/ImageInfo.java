@@ -0,0 +1,91 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+/**
+ * Describes an encoded image without holding its pixels: its dimensions, format, and whether it
+ * may contain transparent pixels. This is learned from the image header the first time an image
+ * is decoded, and is recorded by the {@link com.github.ignition.support.cache.ImageCache} so that
+ * later decodes can skip the bounds pass, and layouts can reserve the right aspect ratio before
+ * the image itself has loaded.
+ */
+public class ImageInfo {
+
+    int width, height;
+    String mimeType;
+    boolean hasAlpha = true;
+    boolean headerSniffed;
+
+    public ImageInfo() {
+    }
+
+    public ImageInfo(int width, int height, String mimeType, boolean hasAlpha) {
+        this.width = width;
+        this.height = height;
+        this.mimeType = mimeType;
+        this.hasAlpha = hasAlpha;
+        this.headerSniffed = true;
+    }
+
+    /**
+     * @return the width of the full-size image in pixels, or 0 if not known yet
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the full-size image in pixels, or 0 if not known yet
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the image's MIME type, or null if the format wasn't recognized
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return false if the image is known to be opaque
+     */
+    public boolean hasAlpha() {
+        return hasAlpha;
+    }
+
+    /**
+     * @return the image's width divided by its height, or 0 if the dimensions aren't known yet
+     */
+    public float getAspectRatio() {
+        return height > 0 ? (float) width / height : 0f;
+    }
+
+    /**
+     * @return true if all properties of the image are known, so it can be decoded without first
+     *         parsing its header
+     */
+    public boolean isComplete() {
+        return width > 0 && height > 0 && headerSniffed;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " " + mimeType + (hasAlpha ? " (alpha)" : "");
+    }
+}
@@ -0,0 +1,182 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.github.ignition.support.images.remote;
+
+/**
+ * The timings of a single image request, from the time it was made until the image was handed to
+ * the view, broken down by the stages of the image loader. Durations are in milliseconds, and are
+ * 0 for stages the request didn't go through. If a request was attached to a job already loading
+ * the same image, the timings of the stages are those of that job.
+ * 
+ * @see ImageLoaderListener
+ */
+public class ImageLoadTimings {
+
+    /**
+     * The image was found in the image cache.
+     */
+    public static final int SOURCE_CACHE = 0;
+    /**
+     * The image was downloaded.
+     */
+    public static final int SOURCE_NETWORK = 1;
+    /**
+     * The image had expired from the cache, but the server confirmed it hadn't changed.
+     */
+    public static final int SOURCE_REVALIDATED = 2;
+
+    String imageUrl;
+    int source = SOURCE_CACHE;
+    int priority;
+    long queueWaitMillis;
+    long diskProbeMillis;
+    long timeToFirstByteMillis;
+    long downloadMillis;
+    long bytesDownloaded;
+    int numDownloadAttempts;
+    long decodeMillis;
+    long deliveryMillis;
+    long totalMillis;
+    boolean successful;
+    boolean displayed;
+
+    ImageLoadTimings(String imageUrl) {
+        this.imageUrl = imageUrl;
+    }
+
+    ImageLoadTimings(ImageLoadTimings other) {
+        this.imageUrl = other.imageUrl;
+        this.source = other.source;
+        this.priority = other.priority;
+        this.queueWaitMillis = other.queueWaitMillis;
+        this.diskProbeMillis = other.diskProbeMillis;
+        this.timeToFirstByteMillis = other.timeToFirstByteMillis;
+        this.downloadMillis = other.downloadMillis;
+        this.bytesDownloaded = other.bytesDownloaded;
+        this.numDownloadAttempts = other.numDownloadAttempts;
+        this.decodeMillis = other.decodeMillis;
+        this.deliveryMillis = other.deliveryMillis;
+        this.totalMillis = other.totalMillis;
+        this.successful = other.successful;
+        this.displayed = other.displayed;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    /**
+     * @return where the image came from, one of the SOURCE_* constants
+     */
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * @return the priority the image was requested with, one of the RemoteImageLoader.PRIORITY_*
+     *         constants
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the time spent waiting for a worker thread, summed up over all stages; this includes
+     *         time spent held back while image loading was paused, but not the delay before
+     *         retrying a failed download
+     */
+    public long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    /**
+     * @return the time spent looking up the image in the cache, including decoding it on a hit
+     */
+    public long getDiskProbeMillis() {
+        return diskProbeMillis;
+    }
+
+    /**
+     * @return the time from sending the request until the first bytes of the image arrived
+     */
+    public long getTimeToFirstByteMillis() {
+        return timeToFirstByteMillis;
+    }
+
+    /**
+     * @return the time from sending the request until the image was downloaded completely
+     */
+    public long getDownloadMillis() {
+        return downloadMillis;
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    /**
+     * @return how often the download was attempted, including retries
+     */
+    public int getNumDownloadAttempts() {
+        return numDownloadAttempts;
+    }
+
+    /**
+     * @return the time spent decoding the downloaded image
+     */
+    public long getDecodeMillis() {
+        return decodeMillis;
+    }
+
+    /**
+     * @return the time from handing the image to the UI thread until the handler processed it
+     */
+    public long getDeliveryMillis() {
+        return deliveryMillis;
+    }
+
+    /**
+     * @return the time from requesting the image until the handler processed it
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return true if the image was loaded, false if loading failed
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * @return true if the handler updated its view, false if the view had moved on to another
+     *         image in the meantime
+     */
+    public boolean isDisplayed() {
+        return displayed;
+    }
+
+    @Override
+    public String toString() {
+        return imageUrl + ": total=" + totalMillis + "ms, queued=" + queueWaitMillis
+                + "ms, cache=" + diskProbeMillis + "ms, ttfb=" + timeToFirstByteMillis
+                + "ms, download=" + downloadMillis + "ms (" + bytesDownloaded + " bytes), decode="
+                + decodeMillis + "ms, delivery=" + deliveryMillis + "ms";
+    }
+}
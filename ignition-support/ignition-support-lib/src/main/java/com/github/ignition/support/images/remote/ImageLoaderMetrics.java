@@ -0,0 +1,291 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.github.ignition.support.images.remote;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate statistics of a {@link RemoteImageLoader}: histograms of how long images spend in each
+ * stage of the loader, and counters of requests, coalesced requests, cancellations and downloaded
+ * bytes. Stage timings are recorded once per job, i.e. once for all requests that were coalesced
+ * into it; delivery and total latency are recorded per request.
+ * 
+ * @see RemoteImageLoader#getMetrics()
+ */
+public class ImageLoaderMetrics {
+
+    private final Histogram queueWait = new Histogram();
+    private final Histogram diskProbe = new Histogram();
+    private final Histogram timeToFirstByte = new Histogram();
+    private final Histogram download = new Histogram();
+    private final Histogram decode = new Histogram();
+    private final Histogram delivery = new Histogram();
+    private final Histogram totalLatency = new Histogram();
+    private final Histogram queueDepth = new Histogram();
+
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numCoalesced = new AtomicLong();
+    private final AtomicLong numCancelled = new AtomicLong();
+    private final AtomicLong numFailed = new AtomicLong();
+    private final AtomicLong numDownloads = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+
+    private volatile ImageLoaderListener listener;
+
+    ImageLoaderMetrics() {
+    }
+
+    void setListener(ImageLoaderListener listener) {
+        this.listener = listener;
+    }
+
+    void recordRequest(boolean coalesced) {
+        numRequests.incrementAndGet();
+        if (coalesced) {
+            numCoalesced.incrementAndGet();
+        }
+    }
+
+    void recordCancellation() {
+        numCancelled.incrementAndGet();
+    }
+
+    void recordQueueDepth(int depth) {
+        queueDepth.record(depth);
+    }
+
+    /**
+     * Records the stage timings of a job once it's done.
+     */
+    void recordJob(ImageLoadTimings timings) {
+        queueWait.record(timings.queueWaitMillis);
+        diskProbe.record(timings.diskProbeMillis);
+        if (timings.numDownloadAttempts > 0) {
+            numDownloads.incrementAndGet();
+            bytesDownloaded.addAndGet(timings.bytesDownloaded);
+            timeToFirstByte.record(timings.timeToFirstByteMillis);
+            download.record(timings.downloadMillis);
+        }
+        if (timings.decodeMillis > 0) {
+            decode.record(timings.decodeMillis);
+        }
+    }
+
+    /**
+     * Records the delivery of an image to a request's handler, and reports it to the listener.
+     */
+    void recordDelivery(ImageLoadTimings timings) {
+        if (!timings.successful) {
+            numFailed.incrementAndGet();
+        }
+        delivery.record(timings.deliveryMillis);
+        totalLatency.record(timings.totalMillis);
+        ImageLoaderListener listener = this.listener;
+        if (listener != null) {
+            listener.onImageLoaded(timings);
+        }
+    }
+
+    /**
+     * @return the time jobs spent waiting for worker threads, in milliseconds
+     */
+    public Histogram getQueueWaitHistogram() {
+        return queueWait;
+    }
+
+    /**
+     * @return the time jobs spent looking up images in the cache, in milliseconds
+     */
+    public Histogram getDiskProbeHistogram() {
+        return diskProbe;
+    }
+
+    /**
+     * @return the time from sending a request until the first bytes arrived, in milliseconds
+     */
+    public Histogram getTimeToFirstByteHistogram() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * @return the time it took to download images, in milliseconds
+     */
+    public Histogram getDownloadHistogram() {
+        return download;
+    }
+
+    /**
+     * @return the time it took to decode downloaded images, in milliseconds
+     */
+    public Histogram getDecodeHistogram() {
+        return decode;
+    }
+
+    /**
+     * @return the time from handing images to the UI thread until they were processed, in
+     *         milliseconds
+     */
+    public Histogram getDeliveryHistogram() {
+        return delivery;
+    }
+
+    /**
+     * @return the time from requesting images until they were processed, in milliseconds
+     */
+    public Histogram getTotalLatencyHistogram() {
+        return totalLatency;
+    }
+
+    /**
+     * @return the number of jobs waiting for a worker thread, sampled whenever a job is started
+     */
+    public Histogram getQueueDepthHistogram() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the number of image requests
+     */
+    public long getNumRequests() {
+        return numRequests.get();
+    }
+
+    /**
+     * @return the number of requests that were attached to a job already loading the same image
+     */
+    public long getNumCoalesced() {
+        return numCoalesced.get();
+    }
+
+    /**
+     * @return the number of requests that were cancelled before the image was delivered
+     */
+    public long getNumCancelled() {
+        return numCancelled.get();
+    }
+
+    /**
+     * @return the number of requests for which loading the image failed
+     */
+    public long getNumFailed() {
+        return numFailed.get();
+    }
+
+    /**
+     * @return the number of images downloaded, or revalidated with the server
+     */
+    public long getNumDownloads() {
+        return numDownloads.get();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    public void reset() {
+        queueWait.reset();
+        diskProbe.reset();
+        timeToFirstByte.reset();
+        download.reset();
+        decode.reset();
+        delivery.reset();
+        totalLatency.reset();
+        queueDepth.reset();
+        numRequests.set(0);
+        numCoalesced.set(0);
+        numCancelled.set(0);
+        numFailed.set(0);
+        numDownloads.set(0);
+        bytesDownloaded.set(0);
+    }
+
+    /**
+     * A histogram with fixed, roughly exponential buckets, ranging from 0 to 10000 and above.
+     */
+    public static class Histogram {
+
+        private static final long[] UPPER_BOUNDS = { 0, 1, 2, 5, 10, 20, 50, 100, 200, 500,
+                1000, 2000, 5000, 10000, Long.MAX_VALUE };
+
+        private final long[] counts = new long[UPPER_BOUNDS.length];
+        private long count, sum, max;
+
+        synchronized void record(long value) {
+            int bucket = 0;
+            while (value > UPPER_BOUNDS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        public int getNumBuckets() {
+            return UPPER_BOUNDS.length;
+        }
+
+        /**
+         * @return the largest value counted in the given bucket; the last bucket is unbounded
+         */
+        public long getBucketUpperBound(int bucket) {
+            return UPPER_BOUNDS[bucket];
+        }
+
+        public synchronized long getBucketCount(int bucket) {
+            return counts[bucket];
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the smallest bucket upper bound that at least the given fraction of all values
+         *         is below, e.g. 0.9 for the 90th percentile
+         */
+        public synchronized long getPercentile(double fraction) {
+            long threshold = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= threshold && seen > 0) {
+                    return Math.min(UPPER_BOUNDS[i], max);
+                }
+            }
+            return 0;
+        }
+
+        synchronized void reset() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = 0;
+            }
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+    }
+}
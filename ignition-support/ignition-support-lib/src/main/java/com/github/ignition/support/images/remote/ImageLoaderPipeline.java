@@ -0,0 +1,291 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs image jobs in stages, each with its own thread pool: looking up and decoding cached images,
+ * downloading images, and decoding downloaded images. A job hands itself over to the next stage
+ * when it's done with one, so an image that's in the cache never has to wait for a download
+ * thread, no matter how many downloads are pending. Within each stage, jobs run by priority, see
+ * {@link RemoteImageLoaderJob#compareTo(RemoteImageLoaderJob)}.
+ */
+class ImageLoaderPipeline {
+
+    static final int STAGE_CACHE = 0;
+    static final int STAGE_NETWORK = 1;
+    static final int STAGE_DECODE = 2;
+
+    private final ThreadPoolExecutor[] executors = new ThreadPoolExecutor[3];
+    // only used to re-queue jobs after a delay, so it never runs jobs itself
+    private final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(1);
+
+    // jobs waiting for the timer to re-queue them
+    private final List<RemoteImageLoaderJob> delayedJobs = new ArrayList<RemoteImageLoaderJob>();
+    // jobs held back while the pipeline is paused
+    private final List<RemoteImageLoaderJob> heldJobs = new ArrayList<RemoteImageLoaderJob>();
+    private boolean paused;
+    private volatile boolean shutdown;
+
+    ImageLoaderPipeline(int numCacheThreads, int numNetworkThreads, int numDecodeThreads) {
+        executors[STAGE_CACHE] = newStageExecutor(numCacheThreads);
+        executors[STAGE_NETWORK] = newStageExecutor(numNetworkThreads);
+        executors[STAGE_DECODE] = newStageExecutor(numDecodeThreads);
+    }
+
+    private static ThreadPoolExecutor newStageExecutor(int numThreads) {
+        // jobs are comparable, and run highest priority and newest first
+        return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Queues the given job for the stage it's currently in. Jobs dropped because the pipeline has
+     * been shut down are cancelled and {@link RemoteImageLoaderJob#finish() finished}, as are all
+     * jobs still queued or held when it shuts down.
+     * 
+     * @return true if the job was queued or held back, false if it was cancelled because the
+     *         pipeline has been shut down
+     */
+    boolean execute(RemoteImageLoaderJob job) {
+        job.setPipeline(this);
+        job.onQueued();
+        return enqueue(job);
+    }
+
+    /**
+     * Queues a job that's been queued before, e.g. one held back while paused, so that the time it
+     * has been waiting so far counts towards its queue wait.
+     */
+    private boolean enqueue(RemoteImageLoaderJob job) {
+        if (shutdown) {
+            drop(job);
+            return false;
+        }
+        synchronized (heldJobs) {
+            if (paused && !job.canRunWhilePaused()) {
+                heldJobs.add(job);
+                return true;
+            }
+        }
+        try {
+            executors[job.getStage()].execute(job);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // shut down after we checked
+            drop(job);
+            return false;
+        }
+    }
+
+    /**
+     * Queues the given job for the stage it's currently in after the given delay, without
+     * blocking a worker thread in the meantime. The delay isn't counted as queue wait, since the
+     * job is only queued once it's over.
+     * 
+     * @return false if the job was cancelled because the pipeline has been shut down, in which
+     *         case the calling job must finish itself
+     */
+    boolean executeLater(final RemoteImageLoaderJob job, long delayMillis) {
+        synchronized (delayedJobs) {
+            if (shutdown) {
+                job.cancel();
+                return false;
+            }
+            delayedJobs.add(job);
+        }
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (delayedJobs) {
+                        if (!delayedJobs.remove(job)) {
+                            // dropped by shutdown()
+                            return;
+                        }
+                    }
+                    execute(job);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            synchronized (delayedJobs) {
+                if (!delayedJobs.remove(job)) {
+                    // already cancelled by shutdown()
+                    return false;
+                }
+            }
+            job.cancel();
+            return false;
+        }
+    }
+
+    private void drop(RemoteImageLoaderJob job) {
+        job.cancel();
+        job.finish();
+    }
+
+    /**
+     * Holds back all jobs that haven't started yet, and all jobs queued from now on, except for
+     * those that can be served from memory. Jobs already running continue, but are held back once
+     * they move on to their next stage.
+     */
+    void pause() {
+        List<Runnable> queued = new ArrayList<Runnable>();
+        synchronized (heldJobs) {
+            if (paused) {
+                return;
+            }
+            paused = true;
+            for (ThreadPoolExecutor executor : executors) {
+                executor.getQueue().drainTo(queued);
+            }
+        }
+        for (Runnable job : queued) {
+            enqueue((RemoteImageLoaderJob) job);
+        }
+    }
+
+    /**
+     * Queues all jobs held back since {@link #pause()}, except for those cancelled in the
+     * meantime.
+     */
+    void resume() {
+        List<RemoteImageLoaderJob> released;
+        synchronized (heldJobs) {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+            released = new ArrayList<RemoteImageLoaderJob>(heldJobs);
+            heldJobs.clear();
+        }
+        for (RemoteImageLoaderJob job : released) {
+            if (job.isCancelled()) {
+                // cancelled while held, but possibly too late for remove() to take it out
+                job.finish();
+            } else {
+                enqueue(job);
+            }
+        }
+    }
+
+    /**
+     * Stops all worker threads. Queued, held and delayed jobs are cancelled and finished, and new
+     * jobs are cancelled right away. Jobs already running are interrupted.
+     */
+    void shutdown() {
+        List<Runnable> dropped = new ArrayList<Runnable>();
+        synchronized (delayedJobs) {
+            shutdown = true;
+            dropped.addAll(delayedJobs);
+            delayedJobs.clear();
+        }
+        for (ThreadPoolExecutor executor : executors) {
+            dropped.addAll(executor.shutdownNow());
+        }
+        timer.shutdownNow();
+        synchronized (heldJobs) {
+            dropped.addAll(heldJobs);
+            heldJobs.clear();
+        }
+        for (Runnable job : dropped) {
+            drop((RemoteImageLoaderJob) job);
+        }
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    boolean isPaused() {
+        synchronized (heldJobs) {
+            return paused;
+        }
+    }
+
+    /**
+     * Removes the given job from the queue of whatever stage it's waiting for. Unless it's queued
+     * again, the caller must {@link RemoteImageLoaderJob#finish() finish} a removed job.
+     * 
+     * @return true if the job was removed, false if it's currently running or has finished
+     */
+    boolean remove(RemoteImageLoaderJob job) {
+        synchronized (heldJobs) {
+            if (heldJobs.remove(job)) {
+                return true;
+            }
+        }
+        for (ThreadPoolExecutor executor : executors) {
+            if (executor.remove(job)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void setPoolSize(int stage, int numThreads) {
+        ThreadPoolExecutor executor = executors[stage];
+        // the job queue is unbounded, so the pool never grows beyond its core size
+        if (numThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(numThreads);
+            executor.setCorePoolSize(numThreads);
+        } else {
+            executor.setCorePoolSize(numThreads);
+            executor.setMaximumPoolSize(numThreads);
+        }
+    }
+
+    int getPoolSize(int stage) {
+        return executors[stage].getCorePoolSize();
+    }
+
+    /**
+     * @return the number of jobs waiting for the given stage
+     */
+    int getQueueSize(int stage) {
+        return executors[stage].getQueue().size();
+    }
+
+    /**
+     * @return the number of jobs waiting for any stage, including those held back while paused
+     */
+    int getTotalQueueSize() {
+        int size = getNumHeldJobs();
+        for (ThreadPoolExecutor executor : executors) {
+            size += executor.getQueue().size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of jobs held back while paused
+     */
+    int getNumHeldJobs() {
+        synchronized (heldJobs) {
+            return heldJobs.size();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.github.ignition.support.images.remote;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * Holds the image loaders shared across the process, so that widgets and adapters don't each
+ * create their own, with their own thread pools and image cache (and disk cache scan on startup).
+ * Loaders are created lazily on first use, and are keyed by a name for their configuration, so
+ * that parts of an app that need differently configured loaders, e.g. one for thumbnails and one
+ * for full-size images, can each share theirs.
+ */
+public final class ImageLoaderRegistry {
+
+    /**
+     * The key of the default image loader, which is used by the remote image widgets unless they
+     * are given a loader explicitly.
+     */
+    public static final String DEFAULT_KEY = "default";
+
+    /**
+     * Creates the image loader for a key when it's first requested.
+     */
+    public interface Factory {
+
+        /**
+         * @param appContext
+         *            the application context
+         * @return the new image loader
+         */
+        RemoteImageLoader createImageLoader(Context appContext);
+    }
+
+    private static final Map<String, RemoteImageLoader> imageLoaders = new HashMap<String, RemoteImageLoader>();
+
+    private ImageLoaderRegistry() {
+    }
+
+    /**
+     * @param context
+     *            the current context
+     * @return the default image loader, created with default settings if necessary
+     */
+    public static RemoteImageLoader getImageLoader(Context context) {
+        return getImageLoader(context, DEFAULT_KEY, null);
+    }
+
+    /**
+     * Returns the image loader for the given key, creating it if necessary.
+     * 
+     * @param context
+     *            the current context; only the application context is retained
+     * @param key
+     *            the key of the loader's configuration
+     * @param factory
+     *            creates the loader if there is none for the key yet; if null, a loader with
+     *            default settings is created
+     * @return the image loader
+     */
+    public static synchronized RemoteImageLoader getImageLoader(Context context, String key,
+            Factory factory) {
+        RemoteImageLoader imageLoader = imageLoaders.get(key);
+        if (imageLoader == null) {
+            Context appContext = context.getApplicationContext();
+            if (factory != null) {
+                imageLoader = factory.createImageLoader(appContext);
+            } else {
+                imageLoader = new RemoteImageLoader(appContext);
+            }
+            imageLoaders.put(key, imageLoader);
+        }
+        return imageLoader;
+    }
+
+    /**
+     * Shuts down the image loader for the given key, if it has been created. The next request for
+     * that key creates a new one.
+     * 
+     * @param key
+     *            the key of the loader's configuration
+     * @see RemoteImageLoader#shutdown()
+     */
+    public static synchronized void shutdown(String key) {
+        RemoteImageLoader imageLoader = imageLoaders.remove(key);
+        if (imageLoader != null) {
+            imageLoader.shutdown();
+        }
+    }
+
+    /**
+     * Shuts down all image loaders created through this registry, e.g. when the app is being
+     * terminated, or to free their threads when the app goes into the background for good.
+     */
+    public static synchronized void shutdownAll() {
+        for (RemoteImageLoader imageLoader : imageLoaders.values()) {
+            imageLoader.shutdown();
+        }
+        imageLoaders.clear();
+    }
+}
@@ -0,0 +1,140 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.github.ignition.support.images.remote;
+
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * Decides how a {@link RemoteImageLoader} should load images depending on the kind of network the
+ * device is connected to: on Wi-Fi, more images can be downloaded in parallel, whereas on a 2G
+ * connection, parallel downloads only slow each other down, and need more generous timeouts.
+ * Override the getters to tune the settings for your images.
+ * 
+ * @see RemoteImageLoader#setNetworkPolicy(android.content.Context, ImageNetworkPolicy)
+ */
+public class ImageNetworkPolicy {
+
+    /**
+     * No network connection, or the network type hasn't been determined yet.
+     */
+    public static final int NETWORK_UNKNOWN = 0;
+    /**
+     * A slow mobile connection, e.g. GPRS or EDGE.
+     */
+    public static final int NETWORK_SLOW = 1;
+    /**
+     * A mobile connection of moderate speed, e.g. UMTS or EVDO.
+     */
+    public static final int NETWORK_MEDIUM = 2;
+    /**
+     * A fast connection, e.g. Wi-Fi, Ethernet or LTE.
+     */
+    public static final int NETWORK_FAST = 3;
+
+    // connection types and mobile subtypes from newer API levels
+    private static final int TYPE_WIMAX = 6;
+    private static final int TYPE_ETHERNET = 9;
+    private static final int NETWORK_TYPE_GPRS = 1;
+    private static final int NETWORK_TYPE_EDGE = 2;
+    private static final int NETWORK_TYPE_CDMA = 4;
+    private static final int NETWORK_TYPE_1xRTT = 7;
+    private static final int NETWORK_TYPE_IDEN = 11;
+    private static final int NETWORK_TYPE_LTE = 13;
+    private static final int NETWORK_TYPE_HSPAP = 15;
+
+    /**
+     * @param networkInfo
+     *            the active network, as returned by
+     *            {@link ConnectivityManager#getActiveNetworkInfo()}; may be null
+     * @return one of the NETWORK_* constants
+     */
+    public static int classify(NetworkInfo networkInfo) {
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return NETWORK_UNKNOWN;
+        }
+        switch (networkInfo.getType()) {
+        case ConnectivityManager.TYPE_WIFI:
+        case TYPE_WIMAX:
+        case TYPE_ETHERNET:
+            return NETWORK_FAST;
+        default:
+            switch (networkInfo.getSubtype()) {
+            case NETWORK_TYPE_GPRS:
+            case NETWORK_TYPE_EDGE:
+            case NETWORK_TYPE_CDMA:
+            case NETWORK_TYPE_1xRTT:
+            case NETWORK_TYPE_IDEN:
+                return NETWORK_SLOW;
+            case NETWORK_TYPE_LTE:
+            case NETWORK_TYPE_HSPAP:
+                return NETWORK_FAST;
+            default:
+                return NETWORK_MEDIUM;
+            }
+        }
+    }
+
+    /**
+     * @param networkClass
+     *            one of the NETWORK_* constants, other than {@link #NETWORK_UNKNOWN}
+     * @return the number of images to download in parallel
+     */
+    public int getThreadPoolSize(int networkClass) {
+        switch (networkClass) {
+        case NETWORK_SLOW:
+            return 1;
+        case NETWORK_FAST:
+            return 6;
+        default:
+            return 3;
+        }
+    }
+
+    /**
+     * @param networkClass
+     *            one of the NETWORK_* constants, other than {@link #NETWORK_UNKNOWN}
+     * @return the timeout in milliseconds for establishing a connection
+     */
+    public int getConnectionTimeout(int networkClass) {
+        switch (networkClass) {
+        case NETWORK_SLOW:
+            return 15 * 1000;
+        case NETWORK_FAST:
+            return RemoteImageTransport.DEFAULT_CONNECTION_TIMEOUT;
+        default:
+            return 10 * 1000;
+        }
+    }
+
+    /**
+     * @param networkClass
+     *            one of the NETWORK_* constants, other than {@link #NETWORK_UNKNOWN}
+     * @return the timeout in milliseconds for waiting for data
+     */
+    public int getSocketTimeout(int networkClass) {
+        switch (networkClass) {
+        case NETWORK_SLOW:
+            return 20 * 1000;
+        case NETWORK_FAST:
+            return RemoteImageTransport.DEFAULT_SOCKET_TIMEOUT;
+        default:
+            return 10 * 1000;
+        }
+    }
+}
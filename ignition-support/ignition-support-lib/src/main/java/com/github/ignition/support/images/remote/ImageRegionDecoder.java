@@ -0,0 +1,138 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.ignition.support.images.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * Decodes rectangular regions of an encoded image without decoding the whole image. This wraps
+ * the platform's BitmapRegionDecoder, which is only available on Android 2.3.3 (API level 10) and
+ * later; since this library builds against Android 1.6, it is accessed via reflection. Use
+ * {@link #isSupported()} to check whether region decoding is available on the current device.
+ */
+class ImageRegionDecoder {
+
+    private static final String LOG_TAG = "Ignition/ImageRegionDecoder";
+
+    private static Method newInstanceFromFile, newInstanceFromBytes, decodeRegion, getWidth,
+            getHeight, recycle;
+
+    static {
+        try {
+            Class<?> decoderClass = Class.forName("android.graphics.BitmapRegionDecoder");
+            newInstanceFromFile = decoderClass.getMethod("newInstance", String.class,
+                    boolean.class);
+            newInstanceFromBytes = decoderClass.getMethod("newInstance", byte[].class, int.class,
+                    int.class, boolean.class);
+            decodeRegion = decoderClass.getMethod("decodeRegion", Rect.class,
+                    BitmapFactory.Options.class);
+            getWidth = decoderClass.getMethod("getWidth");
+            getHeight = decoderClass.getMethod("getHeight");
+            recycle = decoderClass.getMethod("recycle");
+        } catch (Exception e) {
+            Log.i(LOG_TAG, "BitmapRegionDecoder not available, tiled image loading is disabled");
+            newInstanceFromFile = null;
+        }
+    }
+
+    private final Object decoder;
+
+    private ImageRegionDecoder(Object decoder) {
+        this.decoder = decoder;
+    }
+
+    static boolean isSupported() {
+        return newInstanceFromFile != null;
+    }
+
+    static ImageRegionDecoder newInstance(File imageFile) throws IOException {
+        return new ImageRegionDecoder(invokeStatic(newInstanceFromFile,
+                imageFile.getAbsolutePath(), false));
+    }
+
+    static ImageRegionDecoder newInstance(byte[] imageData) throws IOException {
+        return new ImageRegionDecoder(invokeStatic(newInstanceFromBytes, imageData, 0,
+                imageData.length, false));
+    }
+
+    synchronized Bitmap decodeRegion(Rect region, BitmapFactory.Options opts) {
+        try {
+            return (Bitmap) invoke(decodeRegion, region, opts);
+        } catch (IOException e) {
+            // decodeRegion doesn't declare any checked exceptions
+            return null;
+        }
+    }
+
+    synchronized int getWidth() {
+        return (Integer) invokeUnchecked(getWidth);
+    }
+
+    synchronized int getHeight() {
+        return (Integer) invokeUnchecked(getHeight);
+    }
+
+    synchronized void recycle() {
+        invokeUnchecked(recycle);
+    }
+
+    private Object invokeUnchecked(Method method) {
+        try {
+            return invoke(method);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object invoke(Method method, Object... args) throws IOException {
+        return invoke(decoder, method, args);
+    }
+
+    private static Object invokeStatic(Method method, Object... args) throws IOException {
+        if (method == null) {
+            throw new UnsupportedOperationException(
+                    "Region decoding requires Android 2.3.3 or newer");
+        }
+        return invoke(null, method, args);
+    }
+
+    private static Object invoke(Object target, Method method, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            // unwrap what the region decoder threw, so callers can handle I/O and OOM errors
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.github.ignition.support.images.remote;
+
+/**
+ * Rewrites image URLs before they're loaded, e.g. to request a smaller or more heavily compressed
+ * variant of an image on slow networks, if the image server offers one.
+ * 
+ * @see RemoteImageLoader#setUrlRewriter(ImageUrlRewriter)
+ */
+public interface ImageUrlRewriter {
+
+    /**
+     * @param imageUrl
+     *            the URL of the image as requested
+     * @param networkClass
+     *            the kind of network the device is connected to, one of the
+     *            ImageNetworkPolicy.NETWORK_* constants
+     * @return the URL to load the image from; this is also the URL the image is cached under
+     */
+    String rewriteUrl(String imageUrl, int networkClass);
+}
@@ -0,0 +1,55 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.github.ignition.support.images.remote;
+
+/**
+ * The validators a server sent along with an image, i.e. its ETag and Last-Modified headers. They
+ * are recorded by the {@link com.github.ignition.support.cache.ImageCache}, so that once a cached
+ * image has expired, it can be revalidated with a conditional request, rather than downloaded
+ * again.
+ */
+public class ImageValidators {
+
+    private final String eTag;
+    private final String lastModified;
+
+    /**
+     * @param eTag
+     *            the value of the ETag header, or null
+     * @param lastModified
+     *            the value of the Last-Modified header, or null
+     */
+    public ImageValidators(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the value of the ETag header, or null if the server didn't send one
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return the value of the Last-Modified header, or null if the server didn't send one
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+}
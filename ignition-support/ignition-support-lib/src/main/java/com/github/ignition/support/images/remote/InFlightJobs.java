@@ -0,0 +1,126 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the image jobs that are queued or running, so that requests for an image that is
+ * already being loaded can be attached to the existing job instead of downloading and decoding the
+ * image again.
+ */
+class InFlightJobs {
+
+    private final Map<String, List<RemoteImageLoaderJob>> jobsByUrl = new HashMap<String, List<RemoteImageLoaderJob>>();
+
+    /**
+     * Attaches the given handler to a job that is loading the given image at a compatible size.
+     * 
+     * @return the job the handler was attached to, or null if a new job must be started
+     */
+    synchronized RemoteImageLoaderJob attach(String imageUrl, int width, int height, int quality,
+            RemoteImageLoaderHandler handler) {
+        List<RemoteImageLoaderJob> jobs = jobsByUrl.get(imageUrl);
+        if (jobs == null) {
+            return null;
+        }
+        for (RemoteImageLoaderJob job : jobs) {
+            if (job.addHandler(handler, width, height, quality)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the job the given handler is waiting on, or null if there is none
+     */
+    synchronized RemoteImageLoaderJob find(RemoteImageLoaderHandler handler) {
+        String imageUrl = handler.getImageUrl();
+        List<RemoteImageLoaderJob> jobs = imageUrl != null ? jobsByUrl.get(imageUrl) : null;
+        if (jobs == null) {
+            return null;
+        }
+        for (RemoteImageLoaderJob job : jobs) {
+            if (job.hasHandler(handler)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if any job is loading the given image
+     */
+    synchronized boolean contains(String imageUrl) {
+        return jobsByUrl.containsKey(imageUrl);
+    }
+
+    synchronized void add(RemoteImageLoaderJob job) {
+        List<RemoteImageLoaderJob> jobs = jobsByUrl.get(job.getImageUrl());
+        if (jobs == null) {
+            jobs = new ArrayList<RemoteImageLoaderJob>(1);
+            jobsByUrl.put(job.getImageUrl(), jobs);
+        }
+        jobs.add(job);
+    }
+
+    synchronized void remove(RemoteImageLoaderJob job) {
+        List<RemoteImageLoaderJob> jobs = jobsByUrl.get(job.getImageUrl());
+        if (jobs != null && jobs.remove(job) && jobs.isEmpty()) {
+            jobsByUrl.remove(job.getImageUrl());
+        }
+    }
+
+    /**
+     * Detaches the given handler from the job it's waiting on.
+     * 
+     * @return the job if the handler was its last waiter, in which case it has been removed from
+     *         the registry and should be cancelled; null otherwise
+     */
+    synchronized RemoteImageLoaderJob detach(RemoteImageLoaderHandler handler) {
+        RemoteImageLoaderJob job = find(handler);
+        if (job != null && job.removeHandler(handler) == 0) {
+            remove(job);
+            return job;
+        }
+        return null;
+    }
+
+    /**
+     * Cancels all jobs, and forgets about them.
+     */
+    synchronized void cancelAll() {
+        for (List<RemoteImageLoaderJob> jobs : jobsByUrl.values()) {
+            for (RemoteImageLoaderJob job : jobs) {
+                job.cancel();
+            }
+        }
+        jobsByUrl.clear();
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (List<RemoteImageLoaderJob> jobs : jobsByUrl.values()) {
+            size += jobs.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,61 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+/**
+ * Collects the time it takes from requesting an image until it is displayed, separately for each
+ * request priority. This is what a user perceives as image loading speed, so it's the number to
+ * watch when tuning the image loader, e.g. while flinging through a list.
+ */
+class LoadLatencyStats {
+
+    private final long[] numLoads = new long[RemoteImageLoader.PRIORITY_VISIBLE + 1];
+    private final long[] totalLatency = new long[RemoteImageLoader.PRIORITY_VISIBLE + 1];
+    private final long[] maxLatency = new long[RemoteImageLoader.PRIORITY_VISIBLE + 1];
+
+    synchronized void record(int priority, long latencyMillis) {
+        int index = clamp(priority);
+        numLoads[index]++;
+        totalLatency[index] += latencyMillis;
+        maxLatency[index] = Math.max(maxLatency[index], latencyMillis);
+    }
+
+    synchronized long getNumLoads(int priority) {
+        return numLoads[clamp(priority)];
+    }
+
+    synchronized long getAverageLatency(int priority) {
+        int index = clamp(priority);
+        return numLoads[index] == 0 ? 0 : totalLatency[index] / numLoads[index];
+    }
+
+    synchronized long getMaxLatency(int priority) {
+        return maxLatency[clamp(priority)];
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < numLoads.length; i++) {
+            numLoads[i] = 0;
+            totalLatency[i] = 0;
+            maxLatency[i] = 0;
+        }
+    }
+
+    private int clamp(int priority) {
+        return Math.max(0, Math.min(numLoads.length - 1, priority));
+    }
+}
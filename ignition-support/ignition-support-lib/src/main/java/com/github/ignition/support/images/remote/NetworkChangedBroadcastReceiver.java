@@ -0,0 +1,37 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.github.ignition.support.images.remote;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+public class NetworkChangedBroadcastReceiver extends BroadcastReceiver {
+
+    private RemoteImageLoader imageLoader;
+
+    public NetworkChangedBroadcastReceiver(RemoteImageLoader imageLoader) {
+        this.imageLoader = imageLoader;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        imageLoader.updateNetworkSettings();
+    }
+
+}
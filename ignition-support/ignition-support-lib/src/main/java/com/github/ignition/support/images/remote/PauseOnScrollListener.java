@@ -0,0 +1,85 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+/**
+ * A scroll listener for list views and grids that pauses a {@link RemoteImageLoader} while the
+ * list is being flung, and resumes it once the list comes to rest or the user touches it again.
+ * Rows that fly by during a fling are usually on screen for a few milliseconds only, so loading
+ * their images would only take CPU time away from the UI thread. Register it using
+ * {@link AbsListView#setOnScrollListener(OnScrollListener)}; if you need a scroll listener of your
+ * own, pass it in as the delegate.
+ */
+public class PauseOnScrollListener implements OnScrollListener {
+
+    private final RemoteImageLoader imageLoader;
+    private final boolean pauseOnTouchScroll;
+    private final OnScrollListener delegate;
+
+    public PauseOnScrollListener(RemoteImageLoader imageLoader) {
+        this(imageLoader, false, null);
+    }
+
+    /**
+     * @param imageLoader
+     *            the image loader to pause
+     * @param pauseOnTouchScroll
+     *            whether to also pause while the user drags the list, rather than only while it's
+     *            being flung
+     * @param delegate
+     *            a scroll listener to forward all scroll events to, or null
+     */
+    public PauseOnScrollListener(RemoteImageLoader imageLoader, boolean pauseOnTouchScroll,
+            OnScrollListener delegate) {
+        this.imageLoader = imageLoader;
+        this.pauseOnTouchScroll = pauseOnTouchScroll;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        switch (scrollState) {
+        case SCROLL_STATE_FLING:
+            imageLoader.pause();
+            break;
+        case SCROLL_STATE_TOUCH_SCROLL:
+            if (pauseOnTouchScroll) {
+                imageLoader.pause();
+            } else {
+                imageLoader.resume();
+            }
+            break;
+        default:
+            imageLoader.resume();
+            break;
+        }
+        if (delegate != null) {
+            delegate.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+            int totalItemCount) {
+        if (delegate != null) {
+            delegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+    }
+}
@@ -15,17 +15,31 @@
 
 package com.github.ignition.support.images.remote;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.IntentFilter;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.net.ConnectivityManager;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
 import com.github.ignition.support.cache.ImageCache;
+import com.github.ignition.support.cache.ImageTileCache;
 
 /**
  * Realizes a background image loader that downloads an image from a URL, optionally backed by a
@@ -37,19 +51,57 @@ import com.github.ignition.support.cache.ImageCache;
  */
 public class RemoteImageLoader {
 
-    // the default thread pool size
+    /**
+     * Priority for images that are on screen. This is the default.
+     */
+    public static final int PRIORITY_VISIBLE = 2;
+    /**
+     * Priority for images that will likely be shown soon, e.g. the next items in a list.
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+    /**
+     * Priority for images that may be shown at some point.
+     */
+    public static final int PRIORITY_BACKGROUND = 0;
+
+    // the default thread pool size for downloads
     private static final int DEFAULT_POOL_SIZE = 3;
+    // the default thread pool sizes for reading from the cache, and decoding downloaded images
+    private static final int DEFAULT_CACHE_POOL_SIZE = 2;
+    private static final int DEFAULT_DECODE_POOL_SIZE = 2;
     // expire images after a day
     // TODO: this currently only affects the in-memory cache, so it's quite pointless
     private static final int DEFAULT_TTL_MINUTES = 24 * 60;
     private static final int DEFAULT_NUM_RETRIES = 3;
     private static final int DEFAULT_BUFFER_SIZE = 65536;
+    private static final int DEFAULT_PREVIEW_SAMPLE_SIZE = 8;
+    private static final int DEFAULT_PREVIEW_MIN_BYTES = 16 * 1024;
 
-    private ThreadPoolExecutor executor;
+    private ImageLoaderPipeline pipeline;
+    private RemoteImageTransport transport = RemoteImageTransport.getDefault();
     private ImageCache imageCache;
+    private ImageTileCache tileCache;
+    private final InFlightJobs inFlightJobs = new InFlightJobs();
+    // the request each view is currently waiting for; the handler is only weakly referenced since
+    // it references the view itself
+    private final Map<ImageView, WeakReference<RemoteImageLoaderHandler>> pendingRequests = new WeakHashMap<ImageView, WeakReference<RemoteImageLoaderHandler>>();
+    private final LoadLatencyStats latencyStats = new LoadLatencyStats();
+    private final ImageLoaderMetrics metrics = new ImageLoaderMetrics();
     private int numRetries = DEFAULT_NUM_RETRIES;
     private int defaultBufferSize = DEFAULT_BUFFER_SIZE;
     private long expirationInMinutes = DEFAULT_TTL_MINUTES;
+    private BitmapDecodePolicy decodePolicy = new BitmapDecodePolicy();
+    private int defaultDecodeQuality = BitmapDecodePolicy.QUALITY_DEFAULT;
+    private boolean progressiveLoading;
+    private int previewSampleSize = DEFAULT_PREVIEW_SAMPLE_SIZE;
+    private int previewMinBytes = DEFAULT_PREVIEW_MIN_BYTES;
+    private Context appContext;
+    // the fallback decode size for views that turn out to have no size of their own
+    private int displayWidth, displayHeight;
+    private ImageNetworkPolicy networkPolicy;
+    private BroadcastReceiver networkChangedReceiver;
+    private volatile int networkClass = ImageNetworkPolicy.NETWORK_UNKNOWN;
+    private volatile ImageUrlRewriter urlRewriter;
 
     protected Drawable dummyDrawable, errorDrawable;
 
@@ -69,12 +121,14 @@ public class RemoteImageLoader {
      *            whether to create a default {@link ImageCache} used for caching
      */
     public RemoteImageLoader(Context context, boolean createCache) {
-        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(DEFAULT_POOL_SIZE);
+        pipeline = new ImageLoaderPipeline(DEFAULT_CACHE_POOL_SIZE, DEFAULT_POOL_SIZE,
+                DEFAULT_DECODE_POOL_SIZE);
+        android.util.DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        displayWidth = metrics.widthPixels;
+        displayHeight = metrics.heightPixels;
         if (createCache) {
-        	android.util.DisplayMetrics metrics = context.getResources().getDisplayMetrics();
-    		int maxWidth = metrics.widthPixels;
-    		int maxHeight = metrics.heightPixels;
-            imageCache = new ImageCache(25, expirationInMinutes, DEFAULT_POOL_SIZE, maxWidth, maxHeight);
+            imageCache = new ImageCache(25, expirationInMinutes, DEFAULT_CACHE_POOL_SIZE
+                    + DEFAULT_POOL_SIZE + DEFAULT_DECODE_POOL_SIZE, displayWidth, displayHeight);
             imageCache.enableDiskCache(context.getApplicationContext(),
                     ImageCache.DISK_CACHE_SDCARD);
         }
@@ -86,7 +140,50 @@ public class RemoteImageLoader {
      *            the maximum number of threads that will be started to download images in parallel
      */
     public void setThreadPoolSize(int numThreads) {
-        executor.setMaximumPoolSize(numThreads);
+        pipeline.setPoolSize(ImageLoaderPipeline.STAGE_NETWORK, numThreads);
+    }
+
+    /**
+     * Sets the transport used to download images. By default, all image loaders share the
+     * {@link RemoteImageTransport#getDefault() default transport}, so they also share its pool of
+     * persistent connections.
+     * 
+     * @param transport
+     *            the transport
+     */
+    public void setTransport(RemoteImageTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return the transport used to download images, e.g. to limit connections per host or check
+     *         how often connections were reused
+     */
+    public RemoteImageTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Images found in the cache are loaded on a separate thread pool, so they don't have to wait
+     * for downloads to finish.
+     * 
+     * @param numThreads
+     *            the number of threads that will read and decode images from the cache in
+     *            parallel (default: 2)
+     */
+    public void setCacheThreadPoolSize(int numThreads) {
+        pipeline.setPoolSize(ImageLoaderPipeline.STAGE_CACHE, numThreads);
+    }
+
+    /**
+     * Downloaded images are decoded on a separate thread pool, so download threads can move on to
+     * the next download right away.
+     * 
+     * @param numThreads
+     *            the number of threads that will decode downloaded images in parallel (default: 2)
+     */
+    public void setDecodeThreadPoolSize(int numThreads) {
+        pipeline.setPoolSize(ImageLoaderPipeline.STAGE_DECODE, numThreads);
     }
 
     /**
@@ -119,8 +216,184 @@ public class RemoteImageLoader {
         this.errorDrawable = drawable;
     }
 
+    /**
+     * @param imageCache
+     *            the cache to look up and store images in, which is set up to decode images with
+     *            this loader's decode policy
+     */
     public void setImageCache(ImageCache imageCache) {
         this.imageCache = imageCache;
+        if (imageCache != null) {
+            imageCache.setDecodePolicy(decodePolicy);
+        }
+    }
+
+    /**
+     * Sets the policy that decides which bitmap config images are decoded to. This is also applied
+     * to the image cache, if there is one.
+     * 
+     * @param decodePolicy
+     *            the decode policy
+     */
+    public void setDecodePolicy(BitmapDecodePolicy decodePolicy) {
+        this.decodePolicy = decodePolicy;
+        if (imageCache != null) {
+            imageCache.setDecodePolicy(decodePolicy);
+        }
+    }
+
+    /**
+     * @param quality
+     *            the quality hint used for requests that don't specify one, one of the
+     *            BitmapDecodePolicy.QUALITY_* constants. Defaults to
+     *            {@link BitmapDecodePolicy#QUALITY_DEFAULT}, which decodes opaque JPEGs at 16 bits
+     *            per pixel.
+     */
+    public void setDefaultDecodeQuality(int quality) {
+        this.defaultDecodeQuality = quality;
+    }
+
+    /**
+     * Enables or disables progressive loading. If enabled, a heavily subsampled preview of an image
+     * is shown as soon as enough of it has been downloaded, which is then replaced by the full
+     * image once that's been decoded. This improves perceived latency on slow connections. Images
+     * found in the cache are shown right away, without a preview. Disabled by default.
+     * 
+     * @param enabled
+     *            whether to post previews before the full images
+     * @see RemoteImageLoaderHandler#handleImagePreviewLoaded(Bitmap, android.os.Message)
+     */
+    public void setProgressiveLoading(boolean enabled) {
+        this.progressiveLoading = enabled;
+    }
+
+    /**
+     * @param sampleSize
+     *            the subsampling factor used for preview images when progressive loading is
+     *            enabled, preferably a power of 2 (default: 8)
+     * @param minBytes
+     *            how many bytes of an image must have been downloaded before decoding the preview
+     *            (default: 16KB)
+     */
+    public void setProgressivePreview(int sampleSize, int minBytes) {
+        this.previewSampleSize = sampleSize;
+        this.previewMinBytes = minBytes;
+    }
+
+    /**
+     * Makes this loader adapt to the network the device is connected to: whenever connectivity
+     * changes, the number of parallel downloads and the timeouts of the transport are set as
+     * decided by the given policy, and the {@link #setUrlRewriter(ImageUrlRewriter) URL rewriter}
+     * is told about the kind of network. Note that if this loader uses the default transport, the
+     * timeouts also apply to all other loaders using it.
+     * <p>
+     * This registers a broadcast receiver for connectivity changes with the application context,
+     * so it's best used with a loader that lives as long as the application, e.g. the one shared
+     * by all remote image views. Pass a null policy to unregister it.
+     * </p>
+     * 
+     * @param context
+     *            the current context
+     * @param policy
+     *            the policy, or null to stop adapting to the network
+     */
+    public synchronized void setNetworkPolicy(Context context, ImageNetworkPolicy policy) {
+        appContext = context.getApplicationContext();
+        if (networkChangedReceiver != null) {
+            appContext.unregisterReceiver(networkChangedReceiver);
+            networkChangedReceiver = null;
+        }
+        networkPolicy = policy;
+        if (policy != null) {
+            networkChangedReceiver = new NetworkChangedBroadcastReceiver(this);
+            appContext.registerReceiver(networkChangedReceiver, new IntentFilter(
+                    ConnectivityManager.CONNECTIVITY_ACTION));
+            updateNetworkSettings();
+        } else {
+            networkClass = ImageNetworkPolicy.NETWORK_UNKNOWN;
+        }
+    }
+
+    /**
+     * Applies the network policy for the network the device is currently connected to. This is
+     * called automatically when connectivity changes, if a policy has been set.
+     */
+    public synchronized void updateNetworkSettings() {
+        if (networkPolicy == null || appContext == null) {
+            return;
+        }
+        ConnectivityManager connectivity = (ConnectivityManager) appContext
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        int networkClass = ImageNetworkPolicy.classify(connectivity.getActiveNetworkInfo());
+        if (networkClass == this.networkClass) {
+            return;
+        }
+        this.networkClass = networkClass;
+        if (networkClass == ImageNetworkPolicy.NETWORK_UNKNOWN) {
+            // nothing will be downloaded anyway, so keep the settings for when we're back online
+            return;
+        }
+        Log.i("RemoteImageLoader", "adapting to network class " + networkClass);
+        setThreadPoolSize(networkPolicy.getThreadPoolSize(networkClass));
+        transport.setConnectionTimeout(networkPolicy.getConnectionTimeout(networkClass));
+        transport.setSocketTimeout(networkPolicy.getSocketTimeout(networkClass));
+    }
+
+    /**
+     * @return the kind of network the device is connected to, one of the
+     *         ImageNetworkPolicy.NETWORK_* constants; always
+     *         {@link ImageNetworkPolicy#NETWORK_UNKNOWN} unless a network policy has been set
+     */
+    public int getNetworkClass() {
+        return networkClass;
+    }
+
+    /**
+     * Sets a rewriter that is given the chance to change the URL of every image before it's
+     * loaded, e.g. to request smaller variants of images on slow networks. The rewritten URL is
+     * the one the image is cached under, and the one the view's tag is set to.
+     * 
+     * @param urlRewriter
+     *            the rewriter, or null to load all images from the URLs as given
+     */
+    public void setUrlRewriter(ImageUrlRewriter urlRewriter) {
+        this.urlRewriter = urlRewriter;
+    }
+
+    private String rewriteUrl(String imageUrl, RemoteImageLoaderHandler handler) {
+        ImageUrlRewriter urlRewriter = this.urlRewriter;
+        if (urlRewriter == null || imageUrl == null) {
+            return imageUrl;
+        }
+        String rewrittenUrl = urlRewriter.rewriteUrl(imageUrl, networkClass);
+        if (handler != null) {
+            handler.setImageUrl(rewrittenUrl);
+        }
+        return rewrittenUrl;
+    }
+
+    /**
+     * Shuts this loader down: pending image requests are cancelled, downloads in progress are
+     * aborted, and the loader's threads are stopped. Any image requested afterwards fails to load.
+     * The image cache and the transport are left alone, since they may be shared with other
+     * loaders.
+     * 
+     * @see ImageLoaderRegistry#shutdown(String)
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (networkChangedReceiver != null) {
+                appContext.unregisterReceiver(networkChangedReceiver);
+                networkChangedReceiver = null;
+            }
+            networkPolicy = null;
+        }
+        inFlightJobs.cancelAll();
+        pipeline.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return pipeline.isShutdown();
     }
 
     /**
@@ -133,6 +406,22 @@ public class RemoteImageLoader {
         }
     }
 
+    /**
+     * Returns the dimensions and format of an image this loader has loaded before, e.g. to size a
+     * view with the image's aspect ratio before the image itself is available.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @return the image info, or null if it isn't known (or if there is no image cache)
+     * @see ImageCache#getImageInfo(String)
+     */
+    public ImageInfo getImageInfo(String imageUrl) {
+        if (imageCache == null) {
+            return null;
+        }
+        return imageCache.getImageInfo(imageUrl);
+    }
+
     /**
      * Returns the image cache backing this image loader.
      * 
@@ -171,26 +460,141 @@ public class RemoteImageLoader {
      *            the handler that will process the bitmap after completion
      */
     public void loadImage(String imageUrl, ImageView imageView, RemoteImageLoaderHandler handler) {
+        loadImage(imageUrl, imageView, handler, PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Like {@link #loadImage(String, ImageView, RemoteImageLoaderHandler)}, but with an explicit
+     * priority. Pending jobs are run highest priority first, and among those of equal priority, the
+     * most recently requested first.
+     * <p>
+     * The image is decoded to fit the size the view is displayed at. If that size isn't known yet,
+     * e.g. because the view hasn't been laid out, it's taken from explicit sizes in the view's
+     * layout params, or else the request is deferred until the view is about to be drawn. A view
+     * that wraps its content is bounded by the size of the closest ancestor that doesn't. A view
+     * that ends up with no size at all gets the image scaled to fit the screen.
+     * </p>
+     * 
+     * @param priority
+     *            one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH} or
+     *            {@link #PRIORITY_BACKGROUND}
+     */
+    public void loadImage(String imageUrl, ImageView imageView, RemoteImageLoaderHandler handler,
+            int priority) {
+        loadImage(imageUrl, imageView, imageView, handler, priority);
+    }
+
+    /**
+     * Like {@link #loadImage(String, ImageView, RemoteImageLoaderHandler, int)}, but sizes the
+     * image after the given view rather than the image view itself. Use this if the image view is
+     * wrapped by a view that determines how large the image is shown, such as RemoteImageView,
+     * whose image view isn't even visible while the image is loading.
+     * 
+     * @param sizeView
+     *            the view whose size the image should fit; the image view or one of its ancestors
+     */
+    public void loadImage(String imageUrl, ImageView imageView, View sizeView,
+            RemoteImageLoaderHandler handler, int priority) {
     	
+    	imageUrl = rewriteUrl(imageUrl, handler);
+    	boolean download = prepareDownload(imageUrl, imageView, handler);
+    	if (!download) {
+    		return;
+    	}
+
     	// load a scaled version
-    	int width = imageView.getWidth();
-    	int height = imageView.getHeight();
+    	int width = getTargetSize(sizeView, true);
+    	int height = getTargetSize(sizeView, false);
     	if (width > 0 && height > 0) {
     		Log.d("RemoteImageLoader", String.format("Enforcing size limit of %dx%d on bitmap to match ImageView dimensions", width, height));
-    		loadScaledImage(imageUrl, imageView, width, height, handler);
+    		execute(imageUrl, width, height, defaultDecodeQuality, priority, handler);
     	} else {
-    		boolean download = prepareDownload(imageUrl, imageView);
-            
-            if (!download) {
-            	return;
-            }
-            
-            executor.execute(new RemoteImageLoaderJob(imageUrl, handler, imageCache, numRetries,
-                    defaultBufferSize));
+    		// decoding before layout would mean decoding at screen size, so wait for the view's size
+    		handler.deferredLoad = new DeferredLoad(imageUrl, imageView, sizeView, handler,
+    		        defaultDecodeQuality, priority);
     	}
     }
 
-	private boolean prepareDownload(String imageUrl, ImageView imageView) {
+    /**
+     * The width or height an image shown by the given view will be displayed at, or 0 if not known
+     * yet. An explicit size in the layout params is used even before layout. A view wrapping its
+     * content is only bounded by the content area of the closest ancestor that doesn't, since the
+     * view's current size only reflects whatever it shows right now, e.g. a placeholder.
+     */
+    static int getTargetSize(View view, boolean horizontal) {
+        int padding = 0;
+        View current = view;
+        while (true) {
+            ViewGroup.LayoutParams params = current.getLayoutParams();
+            int paramsSize = params == null ? 0 : (horizontal ? params.width : params.height);
+            if (paramsSize != ViewGroup.LayoutParams.WRAP_CONTENT) {
+                int size = paramsSize > 0 ? paramsSize
+                        : (horizontal ? current.getWidth() : current.getHeight());
+                return size > padding ? size - padding : 0;
+            }
+            ViewParent parent = current.getParent();
+            if (!(parent instanceof View)) {
+                return 0;
+            }
+            current = (View) parent;
+            padding += horizontal ? current.getPaddingLeft() + current.getPaddingRight()
+                    : current.getPaddingTop() + current.getPaddingBottom();
+        }
+    }
+
+    /**
+     * Holds back a request for a view whose size isn't known yet until the view is about to be
+     * drawn for the first time, by which point it has been laid out. If the view was re-bound or
+     * the request cancelled in the meantime, the request is dropped.
+     */
+    private class DeferredLoad implements ViewTreeObserver.OnPreDrawListener {
+
+        private final String imageUrl;
+        private final ImageView imageView;
+        private final View sizeView;
+        private final RemoteImageLoaderHandler handler;
+        private final int quality, priority;
+
+        public DeferredLoad(String imageUrl, ImageView imageView, View sizeView,
+                RemoteImageLoaderHandler handler, int quality, int priority) {
+            this.imageUrl = imageUrl;
+            this.imageView = imageView;
+            this.sizeView = sizeView;
+            this.handler = handler;
+            this.quality = quality;
+            this.priority = priority;
+            sizeView.getViewTreeObserver().addOnPreDrawListener(this);
+        }
+
+        void remove() {
+            ViewTreeObserver observer = sizeView.getViewTreeObserver();
+            if (observer.isAlive()) {
+                observer.removeOnPreDrawListener(this);
+            }
+            if (handler.deferredLoad == this) {
+                handler.deferredLoad = null;
+            }
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            remove();
+            if (getPendingHandler(imageView) != handler) {
+                return true;
+            }
+            int width = getTargetSize(sizeView, true);
+            int height = getTargetSize(sizeView, false);
+            if (width <= 0 || height <= 0) {
+                // laid out, but with no size to go by (e.g. an empty view wrapping its content)
+                width = displayWidth;
+                height = displayHeight;
+            }
+            execute(imageUrl, width, height, quality, priority, handler);
+            return true;
+        }
+    }
+
+	private boolean prepareDownload(String imageUrl, ImageView imageView, RemoteImageLoaderHandler handler) {
 		if (imageUrl == null || imageView == null) {
 			return false;
 		}
@@ -208,11 +612,17 @@ public class RemoteImageLoader {
             // nothing to do
             return false;
         } else {
+            // the view was re-bound, so whatever it was waiting for is of no use anymore
+            cancel(imageView);
+
             if (dummyDrawable != null) {
                 // Set the dummy image while waiting for the actual image to be downloaded.
                 imageView.setImageDrawable(dummyDrawable);
             }
             imageView.setTag(imageUrl);
+            synchronized (pendingRequests) {
+                pendingRequests.put(imageView, new WeakReference<RemoteImageLoaderHandler>(handler));
+            }
         }
         
 	    return true;
@@ -231,8 +641,41 @@ public class RemoteImageLoader {
     }
     
     public void loadScaledImage(String imageUrl, ImageView imageView, int width, int height, RemoteImageLoaderHandler handler) {
+    	loadScaledImage(imageUrl, imageView, width, height, defaultDecodeQuality, handler);
+    }
+
+    /**
+     * Like {@link #loadScaledImage(String, ImageView, int, int, RemoteImageLoaderHandler)}, but
+     * with an explicit quality hint for this request. Use {@link BitmapDecodePolicy#QUALITY_LOW}
+     * for thumbnails, and {@link BitmapDecodePolicy#QUALITY_HIGH} where color depth matters.
+     * 
+     * @param imageUrl
+     * @param imageView
+     * @param width
+     * @param height
+     * @param quality
+     *            one of the BitmapDecodePolicy.QUALITY_* hints
+     * @param handler
+     */
+    public void loadScaledImage(String imageUrl, ImageView imageView, int width, int height,
+            int quality, RemoteImageLoaderHandler handler) {
+        loadScaledImage(imageUrl, imageView, width, height, quality, PRIORITY_VISIBLE, handler);
+    }
+
+    /**
+     * Like {@link #loadScaledImage(String, ImageView, int, int, int, RemoteImageLoaderHandler)},
+     * but with an explicit priority.
+     * 
+     * @param priority
+     *            one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH} or
+     *            {@link #PRIORITY_BACKGROUND}
+     * @see #loadImage(String, ImageView, RemoteImageLoaderHandler, int)
+     */
+    public void loadScaledImage(String imageUrl, ImageView imageView, int width, int height,
+            int quality, int priority, RemoteImageLoaderHandler handler) {
     	
-    	boolean download = prepareDownload(imageUrl, imageView);
+    	imageUrl = rewriteUrl(imageUrl, handler);
+    	boolean download = prepareDownload(imageUrl, imageView, handler);
     	if (!download) {
     		return;
     	}
@@ -246,7 +689,326 @@ public class RemoteImageLoader {
     		height = imgViewHeight;
     	}
     	
-        executor.execute(new RemoteImageLoaderJob(imageUrl, width, height, handler, imageCache, numRetries,
-                defaultBufferSize));
+        execute(imageUrl, width, height, quality, priority, handler);
+    }
+
+    /**
+     * Starts a job for the given image, or, if the image is already being loaded at a compatible
+     * size, attaches the handler to the job in flight so the image is downloaded and decoded once.
+     */
+    private void execute(String imageUrl, int width, int height, int quality, int priority,
+            RemoteImageLoaderHandler handler) {
+        handler.requestTime = SystemClock.uptimeMillis();
+        handler.priority = priority;
+        handler.latencyStats = latencyStats;
+        handler.metrics = metrics;
+
+        RemoteImageLoaderJob job;
+        synchronized (inFlightJobs) {
+            job = inFlightJobs.attach(imageUrl, width, height, quality, handler);
+            metrics.recordRequest(job != null);
+            if (job != null) {
+                Log.d("RemoteImageLoader", "attached request for " + imageUrl + " to job in flight");
+                if (priority > job.getPriority()) {
+                    reprioritize(job, priority);
+                }
+                return;
+            }
+            job = new RemoteImageLoaderJob(imageUrl, width, height, decodePolicy, quality,
+                    handler, imageCache, numRetries, defaultBufferSize);
+            job.setPriority(priority);
+            job.setTransport(transport);
+            if (progressiveLoading) {
+                job.setProgressivePreview(previewSampleSize, previewMinBytes);
+            }
+            job.setInFlightJobs(inFlightJobs);
+            job.setMetrics(metrics);
+            inFlightJobs.add(job);
+        }
+        metrics.recordQueueDepth(pipeline.getTotalQueueSize());
+        pipeline.execute(job);
+    }
+
+    /**
+     * Loads the given images into the image cache ahead of time, e.g. for the items just past the
+     * end of a list, so they can be shown right away once they're scrolled to. Prefetching runs at
+     * {@link #PRIORITY_PREFETCH}, so it doesn't hold up images on screen. Images already cached or
+     * being loaded are skipped. If a view requests an image while it's being prefetched, the
+     * request is attached to the prefetch, which is promoted to the request's priority.
+     * <p>
+     * Prefetched images are only downloaded, not decoded. Does nothing if this loader has no
+     * image cache.
+     * </p>
+     * 
+     * @param imageUrls
+     *            the images to prefetch, most important first
+     * @param width
+     *            the width the images will be shown at, or {@link RemoteImageLoaderJob#NO_SCALING}
+     * @param height
+     *            the height the images will be shown at, or {@link RemoteImageLoaderJob#NO_SCALING}
+     */
+    public void prefetch(Collection<String> imageUrls, int width, int height) {
+        prefetch(imageUrls, width, height, false);
+    }
+
+    /**
+     * Like {@link #prefetch(Collection, int, int)}, but can also keep the prefetched images in the
+     * memory cache, which saves reading them from disk once they're shown. Since the memory cache
+     * is small, only use this for the next few images.
+     * 
+     * @param keepInMemory
+     *            whether to put the prefetched images into the memory cache, rather than the disk
+     *            cache only
+     */
+    public void prefetch(Collection<String> imageUrls, int width, int height, boolean keepInMemory) {
+        if (imageCache == null) {
+            return;
+        }
+        // jobs of equal priority run newest first, so submit the most important ones last
+        List<String> urls = new ArrayList<String>(imageUrls);
+        for (int i = urls.size() - 1; i >= 0; i--) {
+            String imageUrl = rewriteUrl(urls.get(i), null);
+            if (imageUrl == null || imageCache.containsKeyInMemory(imageUrl)) {
+                continue;
+            }
+            RemoteImageLoaderJob job;
+            synchronized (inFlightJobs) {
+                if (inFlightJobs.contains(imageUrl)) {
+                    continue;
+                }
+                job = new RemoteImageLoaderJob(imageUrl, width, height, decodePolicy,
+                        defaultDecodeQuality, null, imageCache, numRetries, defaultBufferSize);
+                job.setPriority(PRIORITY_PREFETCH);
+                job.setTransport(transport);
+                job.setPrefetch(keepInMemory);
+                job.setInFlightJobs(inFlightJobs);
+                job.setMetrics(metrics);
+                inFlightJobs.add(job);
+            }
+            pipeline.execute(job);
+        }
+    }
+
+    /**
+     * Pauses image loading, e.g. while a list is being flung, so that the UI thread doesn't have
+     * to compete for the CPU with downloads and decodes of images that are only on screen for a
+     * split second. While paused, only images found in the memory cache are loaded; all other
+     * work, including work already queued, is held back until {@link #resume()} is called. Work
+     * already running is finished.
+     * 
+     * @see PauseOnScrollListener
+     */
+    public void pause() {
+        pipeline.pause();
+    }
+
+    /**
+     * Resumes image loading after {@link #pause()}. Work held back for views that have been bound
+     * to other images or detached in the meantime has been cancelled, and is dropped; the rest is
+     * queued by priority.
+     */
+    public void resume() {
+        pipeline.resume();
+    }
+
+    public boolean isPaused() {
+        return pipeline.isPaused();
+    }
+
+    /**
+     * Changes the priority of the image request the given view is waiting for, e.g. to
+     * {@link #PRIORITY_VISIBLE} when it scrolls back into view, or to {@link #PRIORITY_PREFETCH}
+     * when it scrolls out of view. The request also becomes the newest of its priority. If several
+     * views wait for the same image, the most recent change wins.
+     * 
+     * @param imageView
+     *            the view passed when loading the image
+     * @param priority
+     *            one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH} or
+     *            {@link #PRIORITY_BACKGROUND}
+     */
+    public void setPriority(ImageView imageView, int priority) {
+        RemoteImageLoaderHandler handler = getPendingHandler(imageView);
+        if (handler == null) {
+            return;
+        }
+        handler.priority = priority;
+        synchronized (inFlightJobs) {
+            RemoteImageLoaderJob job = inFlightJobs.find(handler);
+            if (job != null) {
+                reprioritize(job, priority);
+            }
+        }
+    }
+
+    private void reprioritize(RemoteImageLoaderJob job, int priority) {
+        // the queue only orders jobs on insertion, so take the job out and put it back in; if it
+        // can't be removed, it's already running
+        if (pipeline.remove(job)) {
+            job.setPriority(priority);
+            pipeline.execute(job);
+        }
+    }
+
+    /**
+     * @return the job the given handler is waiting on, or null if there is none
+     */
+    RemoteImageLoaderJob getJob(RemoteImageLoaderHandler handler) {
+        return inFlightJobs.find(handler);
+    }
+
+    private RemoteImageLoaderHandler getPendingHandler(ImageView imageView) {
+        synchronized (pendingRequests) {
+            WeakReference<RemoteImageLoaderHandler> handlerRef = pendingRequests.get(imageView);
+            return handlerRef != null ? handlerRef.get() : null;
+        }
+    }
+
+    /**
+     * Returns the average time it took from requesting an image until it was displayed, for
+     * requests of the given priority. For the images on screen, this is the best measure of how
+     * fast the image loader feels to the user.
+     * 
+     * @param priority
+     *            one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_PREFETCH} or
+     *            {@link #PRIORITY_BACKGROUND}
+     * @return the average latency in milliseconds
+     */
+    public long getAverageLoadLatency(int priority) {
+        return latencyStats.getAverageLatency(priority);
+    }
+
+    /**
+     * @return the longest time in milliseconds it took to display an image of the given priority
+     */
+    public long getMaxLoadLatency(int priority) {
+        return latencyStats.getMaxLatency(priority);
+    }
+
+    public void resetLoadLatencyStats() {
+        latencyStats.reset();
+    }
+
+    /**
+     * Returns the statistics of this loader: histograms of how long images spend in each stage,
+     * and counters of requests, cancellations and downloaded bytes. Use this to find out why
+     * images feel slow, or periodically read it to report it to a telemetry service.
+     * 
+     * @return the metrics
+     */
+    public ImageLoaderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets a listener that receives the timings of every image request once the image has been
+     * delivered, broken down by stage.
+     * 
+     * @param listener
+     *            the listener, or null
+     */
+    public void setListener(ImageLoaderListener listener) {
+        metrics.setListener(listener);
+    }
+
+    /**
+     * Cancels the image request the given view is waiting for, if any. Queued work is removed, and
+     * a download or decode in progress is aborted, unless other views are waiting for the same
+     * image. Image requests are cancelled automatically when a view is re-bound to a different
+     * image; call this when the view goes away, e.g. when it is detached from its window.
+     * 
+     * @param imageView
+     *            the view passed when loading the image
+     */
+    public void cancel(ImageView imageView) {
+        RemoteImageLoaderHandler handler = null;
+        synchronized (pendingRequests) {
+            WeakReference<RemoteImageLoaderHandler> handlerRef = pendingRequests.remove(imageView);
+            if (handlerRef != null) {
+                handler = handlerRef.get();
+            }
+        }
+        if (handler == null) {
+            return;
+        }
+        cancel(handler);
+        // if the image hadn't arrived yet, make sure it's requested again when the view is re-used
+        Object tag = imageView.getTag();
+        if (tag instanceof String && tag.equals(handler.getImageUrl())) {
+            imageView.setTag(null);
+        }
+    }
+
+    /**
+     * Tells the loader that the given handler is no longer interested in its image. Since requests
+     * for the same image share a job, the job itself is only cancelled once none of its handlers
+     * are waiting for it anymore.
+     * 
+     * @param handler
+     *            the handler passed when loading the image
+     */
+    public void cancel(RemoteImageLoaderHandler handler) {
+        if (handler.deferredLoad instanceof DeferredLoad) {
+            // still waiting for the view's size, so there's no job yet
+            ((DeferredLoad) handler.deferredLoad).remove();
+            return;
+        }
+        if (inFlightJobs.find(handler) != null) {
+            metrics.recordCancellation();
+        }
+        RemoteImageLoaderJob job = inFlightJobs.detach(handler);
+        if (job != null) {
+            job.cancel();
+            // if it's still queued, it doesn't even have to start
+            if (pipeline.remove(job)) {
+                job.finish();
+            }
+        }
+    }
+
+    /**
+     * @return true if this device supports {@link #loadImageTiles}, i.e. runs Android 2.3.3 or
+     *         newer
+     */
+    public boolean isTiledLoadingSupported() {
+        return ImageRegionDecoder.isSupported();
+    }
+
+    /**
+     * Loads the tiles of a large image that intersect the given region, e.g. the part of a
+     * zoomable image that's currently on screen. This avoids decoding the full image, which for
+     * very large images would either exhaust memory or require heavy downsampling. The image is
+     * downloaded to the image cache first if necessary; tiles are decoded from the cached copy and
+     * delivered to the handler one by one.
+     * <p>
+     * Since tiles are decoded from the cached copy, this requires an {@link ImageCache}; for very
+     * large images, it should have its disk cache enabled.
+     * </p>
+     * 
+     * @param imageUrl
+     *            the URL of the image to load
+     * @param visibleRegion
+     *            the region of the full-size image to load, in image pixels
+     * @param sampleSize
+     *            the sample size at which to decode the tiles, e.g. 2 to decode at half the
+     *            resolution when zoomed out
+     * @param handler
+     *            the handler receiving the image bounds and tiles
+     */
+    public void loadImageTiles(String imageUrl, Rect visibleRegion, int sampleSize,
+            RemoteImageTileHandler handler) {
+        if (imageCache == null || !isTiledLoadingSupported()) {
+            handler.sendEmptyMessage(RemoteImageTileHandler.FAILED_MESSAGE_ID);
+            return;
+        }
+        synchronized (this) {
+            if (tileCache == null) {
+                tileCache = new ImageTileCache(25, DEFAULT_POOL_SIZE);
+            }
+        }
+        RemoteImageTileJob job = new RemoteImageTileJob(imageUrl, visibleRegion, sampleSize,
+                handler, imageCache, tileCache, numRetries, defaultBufferSize);
+        job.setTransport(transport);
+        pipeline.execute(job.getSourceJob());
     }
 }
@@ -21,11 +21,15 @@ import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
 public class RemoteImageLoaderHandler extends Handler {
 
     public static final int HANDLER_MESSAGE_ID = 0;
+    public static final int PREVIEW_MESSAGE_ID = 1;
     public static final String BITMAP_EXTRA = "ign:extra_bitmap";
     public static final String IMAGE_URL_EXTRA = "ign:extra_image_url";
 
@@ -33,6 +37,17 @@ public class RemoteImageLoaderHandler extends Handler {
     private String imageUrl;
     private Drawable errorDrawable;
 
+    // set by the image loader to measure the time until the image is displayed
+    long requestTime;
+    int priority;
+    LoadLatencyStats latencyStats;
+    ImageLoaderMetrics metrics;
+    // set by the image loader while the request waits for the view to be laid out
+    ViewTreeObserver.OnPreDrawListener deferredLoad;
+    // set by the job when it hands over the image
+    ImageLoadTimings timings;
+    long deliveryPostedAt;
+
     public RemoteImageLoaderHandler(ImageView imageView, String imageUrl, Drawable errorDrawable) {
         this.imageView = imageView;
         this.imageUrl = imageUrl;
@@ -43,13 +58,50 @@ public class RemoteImageLoaderHandler extends Handler {
     public final void handleMessage(Message msg) {
         if (msg.what == HANDLER_MESSAGE_ID) {
             handleImageLoadedMessage(msg);
+        } else if (msg.what == PREVIEW_MESSAGE_ID) {
+            Bitmap preview = msg.getData().getParcelable(BITMAP_EXTRA);
+            handleImagePreviewLoaded(preview, msg);
         }
     }
 
     protected final void handleImageLoadedMessage(Message msg) {
         Bundle data = msg.getData();
         Bitmap bitmap = data.getParcelable(BITMAP_EXTRA);
-        handleImageLoaded(bitmap, msg);
+        onImageLoaded(bitmap, msg);
+    }
+
+    /**
+     * Called by the image loader on the main thread to deliver an image without going through a
+     * message, in which case the handler methods are called with a null message.
+     */
+    final void deliverImage(int what, Bitmap bitmap) {
+        if (what == HANDLER_MESSAGE_ID) {
+            onImageLoaded(bitmap, null);
+        } else if (what == PREVIEW_MESSAGE_ID) {
+            handleImagePreviewLoaded(bitmap, null);
+        }
+    }
+
+    private void onImageLoaded(Bitmap bitmap, Message msg) {
+        boolean wasUpdated = handleImageLoaded(bitmap, msg);
+        long now = SystemClock.uptimeMillis();
+        long latency = now - requestTime;
+        if (wasUpdated && bitmap != null && latencyStats != null) {
+            latencyStats.record(priority, latency);
+            Log.d("RemoteImageLoader", "displayed " + imageUrl + " " + latency + "ms after request");
+        }
+        if (metrics != null && timings != null) {
+            // the job's timings are shared by all requests coalesced into it
+            ImageLoadTimings requestTimings = new ImageLoadTimings(timings);
+            requestTimings.imageUrl = imageUrl;
+            requestTimings.priority = priority;
+            requestTimings.deliveryMillis = now - deliveryPostedAt;
+            requestTimings.totalMillis = latency;
+            requestTimings.successful = bitmap != null;
+            requestTimings.displayed = wasUpdated;
+            timings = null;
+            metrics.recordDelivery(requestTimings);
+        }
     }
 
     /**
@@ -80,6 +132,27 @@ public class RemoteImageLoaderHandler extends Handler {
         return false;
     }
 
+    /**
+     * Called with a low resolution preview of the image if progressive loading is enabled on the
+     * image loader, before {@link #handleImageLoaded(Bitmap, Message)} is called with the full
+     * image. Override this method if you need custom handler logic.
+     * 
+     * @param preview
+     *            the low resolution preview
+     * @param msg
+     *            the handler message; can be null
+     * @return true if the view was updated with the preview, false if it was discarded
+     */
+    protected boolean handleImagePreviewLoaded(Bitmap preview, Message msg) {
+        // unlike the full image, don't reset the tag, since the view is still waiting for it
+        String forUrl = (String) imageView.getTag();
+        if (preview != null && imageUrl.equals(forUrl)) {
+            imageView.setImageBitmap(preview);
+            return true;
+        }
+        return false;
+    }
+
     public String getImageUrl() {
         return imageUrl;
     }
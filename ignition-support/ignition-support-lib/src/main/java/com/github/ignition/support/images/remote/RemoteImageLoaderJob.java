@@ -1,37 +1,81 @@
 package com.github.ignition.support.images.remote;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.util.ByteArrayBuffer;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
 import android.util.Log;
 
 import com.github.ignition.support.cache.ImageCache;
 
-public class RemoteImageLoaderJob implements Runnable {
+public class RemoteImageLoaderJob implements Runnable, Comparable<RemoteImageLoaderJob> {
 	
     private static final String LOG_TAG = "Ignition/ImageLoader";
     
     public static final int NO_SCALING = -1;
 
+    // the delay before the first retry, which doubles with every further retry
     private static final int DEFAULT_RETRY_HANDLER_SLEEP_TIME = 1000;
-    private static final int DEFAULT_CONNECTION_TIMEOUT = 5000;
-    private static final int DEFATUL_SOCKET_TIMEOUT = 5000;
+    private static final int MAX_RETRY_HANDLER_SLEEP_TIME = 30 * 1000;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // stands in for the image data of a revalidated image, which is decoded from its cache file
+    private static final byte[] REVALIDATED_IMAGE_DATA = new byte[0];
+
+    // orders jobs of the same priority newest first
+    private static final AtomicLong sequenceGenerator = new AtomicLong();
     
     private String imageUrl;
-    private RemoteImageLoaderHandler handler;
+    // all handlers waiting for this image; more than one if requests were coalesced
+    private final List<RemoteImageLoaderHandler> handlers = new ArrayList<RemoteImageLoaderHandler>(1);
+    private boolean finished;
+    private volatile boolean cancelled;
+    // set once the job has been cleaned up, see finish()
+    private boolean cleanedUp;
+    private RemoteImageTransport transport;
+    private volatile RemoteImageTransport.Download download;
+    private InFlightJobs inFlightJobs;
+    private volatile int priority = RemoteImageLoader.PRIORITY_VISIBLE;
+    private volatile long sequence = sequenceGenerator.incrementAndGet();
+    private ImageLoaderPipeline pipeline;
+    private volatile int stage;
+    // the downloaded image, handed from the network to the decode stage
+    private byte[] downloadedImageData;
+    // the uncommitted cache file the image was downloaded to, if any
+    private File downloadedFile;
+    // the validators sent along with the downloaded image
+    private ImageValidators downloadedValidators;
+    // set if the server confirmed that the expired cache file is still good
+    private boolean revalidated;
     private ImageCache imageCache;
     private int numRetries, defaultBufferSize;
+    private int timesTried = 1;
     private int width;
     private int height;
+    private BitmapDecodePolicy decodePolicy;
+    private int decodeQuality;
+    private int previewSampleSize, previewMinBytes;
+    private boolean previewSent;
+    // prefetch jobs only fill the cache, unless a view requests the image while they're in flight
+    private boolean prefetch, keepInMemory;
+    private final ImageLoadTimings timings;
+    private ImageLoaderMetrics metrics;
+    private long queuedAt, downloadStartedAt;
+    private Runnable onFinished;
     
     public RemoteImageLoaderJob(String imageUrl, RemoteImageLoaderHandler handler, ImageCache imageCache,
             int numRetries, int defaultBufferSize) {
@@ -40,139 +84,775 @@ public class RemoteImageLoaderJob implements Runnable {
     
     public RemoteImageLoaderJob(String imageUrl, int width, int height, RemoteImageLoaderHandler handler, ImageCache imageCache,
             int numRetries, int defaultBufferSize) {
+        this(imageUrl, width, height, null, BitmapDecodePolicy.QUALITY_HIGH, handler, imageCache,
+                numRetries, defaultBufferSize);
+    }
+
+    /**
+     * @param decodePolicy
+     *            the policy to decode with if there is no image cache; if there is one, the
+     *            cache's own policy is used
+     * @param decodeQuality
+     *            one of the BitmapDecodePolicy.QUALITY_* hints
+     */
+    public RemoteImageLoaderJob(String imageUrl, int width, int height,
+            BitmapDecodePolicy decodePolicy, int decodeQuality, RemoteImageLoaderHandler handler,
+            ImageCache imageCache, int numRetries, int defaultBufferSize) {
         this.imageUrl = imageUrl;
         this.width = width;
         this.height = height;
-        this.handler = handler;
+        this.decodePolicy = decodePolicy;
+        this.decodeQuality = decodeQuality;
+        if (handler != null) {
+            this.handlers.add(handler);
+        }
         this.imageCache = imageCache;
         this.numRetries = numRetries;
         this.defaultBufferSize = defaultBufferSize;
+        this.stage = imageCache != null ? ImageLoaderPipeline.STAGE_CACHE
+                : ImageLoaderPipeline.STAGE_NETWORK;
+        this.timings = new ImageLoadTimings(imageUrl);
+    }
+
+    /**
+     * Enables progressive loading for this job: while the image is downloaded, a low resolution
+     * preview is decoded from the partial download once enough bytes are available, and posted to
+     * the handler before the full image. Images found in the cache are posted right away, without a
+     * preview.
+     * 
+     * @param sampleSize
+     *            the subsampling factor for the preview, or 0 to disable previews
+     * @param minBytes
+     *            how many bytes must have been downloaded before decoding the preview
+     */
+    public void setProgressivePreview(int sampleSize, int minBytes) {
+        this.previewSampleSize = sampleSize;
+        this.previewMinBytes = minBytes;
+    }
+
+    /**
+     * Turns this into a prefetch job. As long as no handler is attached, a prefetch job only puts
+     * the image into the image cache, without decoding it. Once a handler is attached, e.g. because
+     * a view requested the image while it was being prefetched, the job behaves like any other.
+     * 
+     * @param keepInMemory
+     *            whether to also put the image into the memory cache, rather than the disk cache
+     *            only
+     */
+    void setPrefetch(boolean keepInMemory) {
+        this.prefetch = true;
+        this.keepInMemory = keepInMemory;
+    }
+
+    /**
+     * Changes the priority of this job. This also makes it the newest job of that priority. Must
+     * not be called while the job is queued for execution, since the queue's ordering would break.
+     * 
+     * @param priority
+     *            one of the RemoteImageLoader.PRIORITY_* constants
+     */
+    void setPriority(int priority) {
+        this.priority = priority;
+        this.sequence = sequenceGenerator.incrementAndGet();
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Orders jobs by priority, and jobs of equal priority newest first, since the most recently
+     * requested images are usually the ones on screen.
+     */
+    @Override
+    public int compareTo(RemoteImageLoaderJob another) {
+        if (priority != another.priority) {
+            return priority > another.priority ? -1 : 1;
+        }
+        if (sequence != another.sequence) {
+            return sequence > another.sequence ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @param transport
+     *            the transport to download the image with; if not set, the
+     *            {@link RemoteImageTransport#getDefault() default transport} is used
+     */
+    public void setTransport(RemoteImageTransport transport) {
+        this.transport = transport;
+    }
+
+    void setPipeline(ImageLoaderPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @param metrics
+     *            the metrics to record this job's timings to once it's done
+     */
+    void setMetrics(ImageLoaderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Called when the job is queued for a worker thread, to measure how long it waits.
+     */
+    void onQueued() {
+        queuedAt = SystemClock.uptimeMillis();
+    }
+
+    int getStage() {
+        return stage;
+    }
+
+    void setStage(int stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * @return true if this job is about to look up an image that's in the memory cache, which is
+     *         cheap enough to do even while image loading is paused
+     */
+    boolean canRunWhilePaused() {
+        return stage == ImageLoaderPipeline.STAGE_CACHE && imageCache != null
+                && imageCache.containsKeyInMemory(imageUrl);
+    }
+
+    /**
+     * @param onFinished
+     *            run once this job is done, whether it succeeded, failed or was cancelled, e.g. to
+     *            decode tiles from an image this job has put into the cache; usually on the worker
+     *            thread, but on the cancelling thread for a job cancelled before it could run
+     */
+    void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    void setInFlightJobs(InFlightJobs inFlightJobs) {
+        this.inFlightJobs = inFlightJobs;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if the bitmap this job produces is good enough for a request with the given size
+     *         and quality, i.e. isn't smaller than requested
+     */
+    boolean canServe(int width, int height, int quality) {
+        if (quality != decodeQuality) {
+            return false;
+        }
+        if (!requiresScaling()) {
+            return true;
+        }
+        return width > 0 && height > 0 && this.width >= width && this.height >= height;
+    }
+
+    /**
+     * Adds another handler to be notified when the image has loaded.
+     * 
+     * @return false if the job has already delivered its result or was cancelled, in which case
+     *         the handler was not added
+     */
+    public synchronized boolean addHandler(RemoteImageLoaderHandler handler) {
+        if (finished || cancelled) {
+            return false;
+        }
+        handlers.add(handler);
+        return true;
+    }
+
+    /**
+     * Adds a handler for an image of the given size and quality, if this job can serve it. A
+     * prefetch job that nobody has claimed yet hasn't decoded anything, so it can still take on
+     * the size and quality of the first request attached to it.
+     * 
+     * @return false if the handler was not added
+     */
+    synchronized boolean addHandler(RemoteImageLoaderHandler handler, int width, int height,
+            int quality) {
+        if (!canServe(width, height, quality)) {
+            if (!prefetch || !handlers.isEmpty()) {
+                return false;
+            }
+            this.width = width;
+            this.height = height;
+            this.decodeQuality = quality;
+        }
+        return addHandler(handler);
+    }
+
+    /**
+     * For prefetch jobs: if no handler has claimed this job, marks it as finished, so that no
+     * handler can be attached anymore.
+     * 
+     * @return true if no bitmap needs to be delivered
+     */
+    private synchronized boolean finishIfUnclaimed() {
+        if (prefetch && handlers.isEmpty()) {
+            finished = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of handlers still waiting for this job
+     */
+    public synchronized int removeHandler(RemoteImageLoaderHandler handler) {
+        handlers.remove(handler);
+        return handlers.size();
+    }
+
+    public synchronized boolean hasHandler(RemoteImageLoaderHandler handler) {
+        return handlers.contains(handler);
+    }
+
+    /**
+     * Cancels this job. If it's already running, it will stop at the next opportunity, and no
+     * handler will be notified. A download in progress is aborted right away.
+     */
+    public void cancel() {
+        cancelled = true;
+        RemoteImageTransport.Download download = this.download;
+        if (download != null) {
+            // unblocks the worker thread if it's waiting for data
+            download.abort();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
     }
 
     /**
      * The job method run on a worker thread. It will first query the image cache, and on a miss,
-     * download the image from the Web.
+     * download the image from the Web. If the job is run by an {@link ImageLoaderPipeline}, this
+     * only runs the current stage, and then hands the job over to the next stage.
      */
     @Override
     public void run() {
+        if (queuedAt > 0) {
+            timings.queueWaitMillis += SystemClock.uptimeMillis() - queuedAt;
+            queuedAt = 0;
+        }
+        boolean handedOver = false;
+        try {
+            if (!cancelled) {
+                if (pipeline != null) {
+                    handedOver = runStage();
+                } else {
+                    loadImage();
+                }
+            }
+        } finally {
+            if (!handedOver) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Cleans up once this job is done, which includes being taken out of a queue before it could
+     * run: throws away a download that hasn't been cached, unregisters the job from the in-flight
+     * jobs, records its timings, and runs the {@link #setOnFinished(Runnable) completion
+     * callback}. Only the first call has any effect. Must not be called for a job that's still queued.
+     */
+    void finish() {
+        synchronized (this) {
+            if (cleanedUp) {
+                return;
+            }
+            cleanedUp = true;
+        }
+        discardImageData();
+        if (inFlightJobs != null) {
+            inFlightJobs.remove(this);
+        }
+        if (metrics != null) {
+            metrics.recordJob(timings);
+        }
+        if (onFinished != null) {
+            onFinished.run();
+        }
+    }
+
+    /**
+     * @return true if the job was handed over to the next stage
+     */
+    private boolean runStage() {
+        switch (stage) {
+        case ImageLoaderPipeline.STAGE_CACHE:
+            if (prefetch && isPrefetched() && finishIfUnclaimed()) {
+                return false;
+            }
+            Bitmap bitmap = loadFromCache();
+            if (bitmap != null || cancelled) {
+                notifyImageLoaded(imageUrl, bitmap);
+                return false;
+            }
+            return handOver(ImageLoaderPipeline.STAGE_NETWORK);
+        case ImageLoaderPipeline.STAGE_NETWORK:
+            try {
+                downloadedImageData = retrieveImageData();
+            } catch (Throwable e) {
+                long retryDelay = onDownloadFailed(e);
+                // don't block the download thread while waiting for the retry
+                if (retryDelay >= 0 && pipeline.executeLater(this, retryDelay)) {
+                    return true;
+                }
+            }
+            if (downloadedImageData == null || cancelled) {
+                notifyImageLoaded(imageUrl, null);
+                return false;
+            }
+            return handOver(ImageLoaderPipeline.STAGE_DECODE);
+        default:
+            byte[] imageData = downloadedImageData;
+            downloadedImageData = null;
+            if (finishIfUnclaimed()) {
+                cachePrefetchedImageData(imageData);
+            } else {
+                notifyImageLoaded(imageUrl, decodeAndCache(imageData));
+            }
+            return false;
+        }
+    }
+
+    private boolean handOver(int nextStage) {
+        stage = nextStage;
+        // if the pipeline was shut down, the job has been cancelled and is cleaned up right here
+        return pipeline.execute(this);
+    }
+
+    private void loadImage() {
+        Bitmap bitmap = loadFromCache();
+
+        if (bitmap == null && !cancelled) {
+            bitmap = downloadImage();
+        }
+
+        notifyImageLoaded(imageUrl, bitmap);
+    }
+
+    private Bitmap loadFromCache() {
         Bitmap bitmap = null;
 
         if (imageCache != null) {
+            long startedAt = SystemClock.uptimeMillis();
+            // no preview here: decoding it would only delay the full image, which is right there
             // at this point we know the image is not in memory, but it could be cached to SD card
         	if (requiresScaling()) {
-        		bitmap = imageCache.getScaledBitmap(imageUrl, width, height);
+        		bitmap = imageCache.getScaledBitmap(imageUrl, width, height, decodeQuality);
         	} else {
-        		bitmap = imageCache.getBitmap(imageUrl);
+        		bitmap = imageCache.getBitmap(imageUrl, decodeQuality);
         	}
+            timings.diskProbeMillis += SystemClock.uptimeMillis() - startedAt;
         }
 
-        if (bitmap == null) {
-            bitmap = downloadImage();
+        return bitmap;
+    }
+
+    /**
+     * @return true if the image is cached as far as this prefetch job is concerned
+     */
+    private boolean isPrefetched() {
+        if (imageCache == null) {
+            return false;
+        }
+        if (imageCache.containsKeyInMemory(imageUrl)) {
+            return true;
         }
+        if (keepInMemory) {
+            // this pulls the image into memory if it's cached to disk
+            return imageCache.get(imageUrl) != null;
+        }
+        return imageCache.containsKeyOnDisk(imageUrl);
+    }
 
-        notifyImageLoaded(imageUrl, bitmap);
+    private void cachePrefetchedImageData(byte[] imageData) {
+        if (imageCache != null && downloadedFile != null && !keepInMemory) {
+            File tempFile = downloadedFile;
+            downloadedFile = null;
+            imageCache.commitTempFile(imageUrl, tempFile, null);
+            imageCache.putValidators(imageUrl, downloadedValidators);
+        } else {
+            cacheImageData(imageData);
+        }
     }
 
     private boolean requiresScaling() {
     	return (width > 0) && (height > 0);
     }
     
-    private Bitmap rawDecode(byte[] imageData) {
-    	return BitmapFactory.decodeByteArray(imageData, 0, imageData.length);
+    private Bitmap decode(byte[] imageData) {
+        if (imageCache != null) {
+            return imageCache.decodeBitmap(imageUrl, imageData, width, height, decodeQuality);
+        } else if (requiresScaling()) {
+            return BitmapHelper.decodeAndResize(imageData, width, height, decodePolicy,
+                    decodeQuality);
+        } else {
+            return BitmapHelper.decode(imageData, decodePolicy, decodeQuality);
+        }
     }
 
-    // TODO: we could probably improve performance by re-using connections instead of closing them
-    // after each and every download
     protected Bitmap downloadImage() {
-        int timesTried = 1;
+        byte[] imageData = downloadImageData();
 
-        while (timesTried <= numRetries) {
-            try {
-                byte[] imageData = retrieveImageData();
+        if (imageData == null || cancelled) {
+            return null;
+        }
 
-                if (imageData == null) {
-                    break;
-                }
+        return decodeAndCache(imageData);
+    }
 
-                // first try to decode the image before before caching it
-                Bitmap bmp;
-                if (requiresScaling()) {
-                	// first try to fetch the image
-                	bmp = BitmapHelper.decodeAndResize(imageData, width, height);
-                	
-                	if (bmp != null) {
-                		// TOOD: consider re-writing this file with the smaller size instead
-                		// of forcing this to be re-scaled every time it's fetched from the cache
-                	}
-                	
-                } else {
-                	bmp = rawDecode(imageData);
-                }
-                
-                // at this point, it was decoded properly, cache it if possible
-                if (imageCache != null && bmp != null) {
-                    imageCache.put(imageUrl, imageData);
-                }
+    /**
+     * Decodes an image the server confirmed to be unchanged from its cache file, which has been
+     * refreshed and is an ordinary cache entry again.
+     */
+    private Bitmap decodeRevalidated() {
+        if (requiresScaling()) {
+            return imageCache.getScaledBitmap(imageUrl, width, height, decodeQuality);
+        }
+        return imageCache.getBitmap(imageUrl, decodeQuality);
+    }
 
-                return bmp;
+    private Bitmap decodeAndCache(byte[] imageData) {
+        if (cancelled) {
+            return null;
+        }
 
+        try {
+            // first try to decode the image before before caching it
+            // TOOD: consider re-writing this file with the smaller size instead
+            // of forcing this to be re-scaled every time it's fetched from the cache
+            long startedAt = SystemClock.uptimeMillis();
+            Bitmap bmp = revalidated ? decodeRevalidated() : decode(imageData);
+            timings.decodeMillis += SystemClock.uptimeMillis() - startedAt;
+
+            // at this point, it was decoded properly, cache it if possible
+            if (bmp != null) {
+                cacheImageData(imageData);
+            }
+
+            return bmp;
+
+        } catch (OutOfMemoryError e) {
+            // downloading the image again wouldn't help with this
+            Log.w(LOG_TAG, "out of memory while decoding " + imageUrl);
+            return null;
+        }
+    }
+
+    /**
+     * Puts the downloaded image into the image cache, if there is one. If the image was streamed
+     * to a temporary cache file while downloading, that file becomes the cache entry.
+     */
+    protected void cacheImageData(byte[] imageData) {
+        File tempFile = downloadedFile;
+        downloadedFile = null;
+        if (imageCache == null || revalidated) {
+            // a revalidated image has been cached all along
+            return;
+        }
+        if (tempFile != null) {
+            imageCache.commitTempFile(imageUrl, tempFile, imageData);
+        } else {
+            imageCache.put(imageUrl, imageData);
+        }
+        imageCache.putValidators(imageUrl, downloadedValidators);
+    }
+
+    /**
+     * Throws away the temporary cache file of a download that won't be cached, e.g. because it
+     * failed to decode.
+     */
+    protected void discardImageData() {
+        File tempFile = downloadedFile;
+        downloadedFile = null;
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Downloads the raw image data, retrying up to numRetries times if the download fails with an
+     * error that may go away, backing off exponentially between attempts. This blocks the calling
+     * thread while waiting for a retry; when run by an {@link ImageLoaderPipeline}, jobs instead
+     * re-queue themselves after the delay.
+     * 
+     * @return the image data, or null if all attempts failed
+     */
+    protected byte[] downloadImageData() {
+        while (!cancelled) {
+            try {
+                return retrieveImageData();
             } catch (Throwable e) {
-                Log.w(LOG_TAG, "download for " + imageUrl + " failed (attempt " + timesTried + ")");
-                e.printStackTrace();
-                SystemClock.sleep(DEFAULT_RETRY_HANDLER_SLEEP_TIME);
-                timesTried++;
+                long retryDelay = onDownloadFailed(e);
+                if (retryDelay < 0) {
+                    return null;
+                }
+                SystemClock.sleep(retryDelay);
             }
         }
 
         return null;
     }
+
+    /**
+     * Decides whether to retry a failed download.
+     * 
+     * @return the delay in milliseconds before the next attempt, or -1 to give up
+     */
+    long onDownloadFailed(Throwable e) {
+        if (cancelled) {
+            // the failure was most likely caused by aborting the connection
+            return -1;
+        }
+        Log.w(LOG_TAG, "download for " + imageUrl + " failed (attempt " + timesTried + "): " + e);
+        if (!isRetryable(e) || timesTried >= numRetries) {
+            return -1;
+        }
+        // exponential backoff with jitter, so failed requests to the same host don't all come
+        // back at the same time
+        long delay = Math.min(MAX_RETRY_HANDLER_SLEEP_TIME,
+                (long) DEFAULT_RETRY_HANDLER_SLEEP_TIME << Math.min(timesTried - 1, 16));
+        timesTried++;
+        return delay / 2 + (long) (Math.random() * (delay / 2));
+    }
+
+    /**
+     * @return true if the given download error may go away when trying again, e.g. a connection
+     *         reset or timeout, or a server error; false for e.g. a 404
+     */
+    protected boolean isRetryable(Throwable e) {
+        if (e instanceof ImageDownloadException) {
+            return ((ImageDownloadException) e).isRetryable();
+        }
+        return e instanceof IOException;
+    }
     
     protected byte[] retrieveImageData() throws IOException {
-        URL url = new URL(imageUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setConnectTimeout(DEFAULT_CONNECTION_TIMEOUT);
-        connection.setReadTimeout(DEFATUL_SOCKET_TIMEOUT);
-        
-        // determine the image size and allocate a buffer
-        int fileSize = connection.getContentLength();
-        if (fileSize <= 0) {
-            fileSize = defaultBufferSize;
-            Log.w(LOG_TAG,
-                    "Server did not set a Content-Length header, will default to buffer size of "
-                            + defaultBufferSize + " bytes");
-        }
-
-        byte[] imageData = new byte[fileSize];
-        ByteArrayBuffer buffer = new ByteArrayBuffer(fileSize);
-
-        // download the file
+        // connections are kept alive and pooled by the transport, so the next image from the same
+        // host doesn't need a new handshake
+        RemoteImageTransport transport = this.transport;
+        if (transport == null) {
+            transport = RemoteImageTransport.getDefault();
+        }
+        // if there's an expired copy of the image, ask the server whether it's still good
+        ImageValidators validators = null;
+        if (imageCache != null) {
+            validators = imageCache.getValidatorsForRevalidation(imageUrl);
+        }
+        downloadStartedAt = SystemClock.uptimeMillis();
+        timings.numDownloadAttempts++;
+        RemoteImageTransport.Download download = transport.open(imageUrl, validators);
+        // the response headers have arrived
+        timings.timeToFirstByteMillis = SystemClock.uptimeMillis() - downloadStartedAt;
+        if (download.isNotModified()) {
+            timings.source = ImageLoadTimings.SOURCE_REVALIDATED;
+            timings.downloadMillis = timings.timeToFirstByteMillis;
+            File imageFile = imageCache.refresh(imageUrl);
+            if (imageFile == null) {
+                throw new IOException("revalidated copy of " + imageUrl + " has been removed");
+            }
+            Log.d(LOG_TAG, imageUrl + " not modified, using cached copy");
+            revalidated = true;
+            // the cached copy is decoded straight from its file, rather than read into memory
+            return REVALIDATED_IMAGE_DATA;
+        }
+        downloadedValidators = download.getValidators();
+        this.download = download;
+        // stream the image straight into the disk cache, so it needn't be written out separately
+        File tempFile = imageCache != null ? imageCache.createTempFile(imageUrl) : null;
+        try {
+            byte[] imageData = readImageData(download, tempFile);
+            if (imageData != null) {
+                timings.source = ImageLoadTimings.SOURCE_NETWORK;
+                timings.downloadMillis = SystemClock.uptimeMillis() - downloadStartedAt;
+                timings.bytesDownloaded = imageData.length;
+                // the file is committed or discarded once we know whether the image decodes
+                discardImageData();
+                downloadedFile = tempFile;
+                tempFile = null;
+            }
+            return imageData;
+        } catch (IOException e) {
+            download.abort();
+            throw e;
+        } finally {
+            this.download = null;
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the image, keeping at most one copy of it in memory: if the server reports the image
+     * size, it's read into an exactly sized buffer, while also being written to the temp file. If
+     * it doesn't, it's written to the temp file only, and read back once complete.
+     */
+    private byte[] readImageData(RemoteImageTransport.Download download, File tempFile)
+            throws IOException {
+        int fileSize = (int) download.getContentLength();
         Log.d(LOG_TAG, "fetching image " + imageUrl + " (" + fileSize + ")");
-        BufferedInputStream istream = new BufferedInputStream(connection.getInputStream());
-        int bytesRead = 0;
-        int offset = 0;
-        while (bytesRead != -1) {
-            bytesRead = istream.read(imageData, 0, fileSize);
-            if (bytesRead > 0) {
-	            buffer.append(imageData, 0, bytesRead);
-	            offset += bytesRead;
+
+        InputStream istream = download.getInputStream();
+        OutputStream ostream = null;
+        try {
+            if (tempFile != null) {
+                ostream = new BufferedOutputStream(new FileOutputStream(tempFile), READ_BUFFER_SIZE);
+            }
+
+            byte[] imageData;
+            if (fileSize > 0) {
+                imageData = new byte[fileSize];
+                int offset = 0;
+                while (offset < fileSize) {
+                    if (cancelled) {
+                        download.abort();
+                        return null;
+                    }
+                    int bytesRead = istream.read(imageData, offset, fileSize - offset);
+                    if (bytesRead == -1) {
+                        throw new IOException("connection closed after " + offset + " of "
+                                + fileSize + " bytes of " + imageUrl);
+                    }
+                    if (ostream != null) {
+                        ostream.write(imageData, offset, bytesRead);
+                    }
+                    offset += bytesRead;
+                    if (previewSampleSize > 0 && !previewSent && offset >= previewMinBytes) {
+                        // decode a preview from what we have so far; the full decode will replace it
+                        notifyPreviewLoaded(BitmapHelper.decodePreview(imageData, offset,
+                                previewSampleSize));
+                    }
+                }
+            } else if (ostream != null) {
+                byte[] chunk = new byte[READ_BUFFER_SIZE];
+                int bytesRead, offset = 0;
+                while ((bytesRead = istream.read(chunk)) != -1) {
+                    if (cancelled) {
+                        download.abort();
+                        return null;
+                    }
+                    ostream.write(chunk, 0, bytesRead);
+                    offset += bytesRead;
+                    if (previewSampleSize > 0 && !previewSent && offset >= previewMinBytes) {
+                        ostream.flush();
+                        notifyPreviewLoaded(BitmapHelper.decodePreview(tempFile,
+                                previewSampleSize));
+                    }
+                }
+                ostream.close();
+                ostream = null;
+                imageData = readFile(tempFile);
+            } else {
+                // no size and no disk cache, so all we can do is grow a buffer as we go
+                Log.w(LOG_TAG, "Server did not set a Content-Length header for " + imageUrl);
+                ByteArrayBuffer buffer = new ByteArrayBuffer(defaultBufferSize);
+                byte[] chunk = new byte[READ_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = istream.read(chunk)) != -1) {
+                    if (cancelled) {
+                        download.abort();
+                        return null;
+                    }
+                    buffer.append(chunk, 0, bytesRead);
+                }
+                imageData = buffer.toByteArray();
+            }
+
+            if (ostream != null) {
+                ostream.close();
+                ostream = null;
             }
+            // this hands the connection back to the pool
+            download.finish();
+            return imageData;
+        } finally {
+            if (ostream != null) {
+                try {
+                    ostream.close();
+                } catch (IOException e) {
+                    // ignore, the temp file will be deleted
+                }
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        DataInputStream istream = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] data = new byte[(int) file.length()];
+            istream.readFully(data);
+            return data;
+        } finally {
+            istream.close();
         }
+    }
 
-        // clean up
-        istream.close();
-        connection.disconnect();
-        
-        imageData = buffer.toByteArray();
-        return imageData;
+    protected void notifyPreviewLoaded(Bitmap preview) {
+        // only attempt one preview per job, even if this one failed to decode
+        previewSent = true;
+        if (preview == null) {
+            return;
+        }
+        List<RemoteImageLoaderHandler> targets;
+        synchronized (this) {
+            targets = new ArrayList<RemoteImageLoaderHandler>(handlers);
+        }
+        for (RemoteImageLoaderHandler handler : targets) {
+            sendBitmap(handler, RemoteImageLoaderHandler.PREVIEW_MESSAGE_ID, imageUrl, preview);
+        }
     }
 
     protected void notifyImageLoaded(String url, Bitmap bitmap) {
+        List<RemoteImageLoaderHandler> targets;
+        synchronized (this) {
+            // from here on, no more handlers can be attached to this job
+            finished = true;
+            targets = new ArrayList<RemoteImageLoaderHandler>(handlers);
+        }
+        if (cancelled) {
+            return;
+        }
+        for (RemoteImageLoaderHandler handler : targets) {
+            sendBitmap(handler, RemoteImageLoaderHandler.HANDLER_MESSAGE_ID, url, bitmap);
+        }
+    }
+
+    private void sendBitmap(RemoteImageLoaderHandler handler, int what, String url, Bitmap bitmap) {
+        if (what == RemoteImageLoaderHandler.HANDLER_MESSAGE_ID) {
+            handler.timings = timings;
+            handler.deliveryPostedAt = SystemClock.uptimeMillis();
+        }
+
+        if (handler.getLooper() == Looper.getMainLooper()) {
+            // no need to parcel the bitmap into a message if it's for the UI thread anyway
+            ImageDelivery.getInstance().deliver(handler, what, bitmap);
+            return;
+        }
+
+        // a message can only be sent once, so every handler gets its own
         Message message = new Message();
-        message.what = RemoteImageLoaderHandler.HANDLER_MESSAGE_ID;
+        message.what = what;
         Bundle data = new Bundle();
         data.putString(RemoteImageLoaderHandler.IMAGE_URL_EXTRA, url);
-        Bitmap image = bitmap;
-        data.putParcelable(RemoteImageLoaderHandler.BITMAP_EXTRA, image);
+        data.putParcelable(RemoteImageLoaderHandler.BITMAP_EXTRA, bitmap);
         message.setData(data);
 
         handler.sendMessage(message);
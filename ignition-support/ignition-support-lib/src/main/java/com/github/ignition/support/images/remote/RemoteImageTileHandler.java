@@ -0,0 +1,95 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.ignition.support.images.remote;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Message;
+
+/**
+ * Receives the results of a tiled image load started via
+ * {@link RemoteImageLoader#loadImageTiles(String, Rect, int, RemoteImageTileHandler)}. All
+ * callbacks run on the thread this handler was created on, usually the UI thread.
+ */
+public abstract class RemoteImageTileHandler extends Handler {
+
+    static final int BOUNDS_MESSAGE_ID = 0;
+    static final int TILE_MESSAGE_ID = 1;
+    static final int FAILED_MESSAGE_ID = 2;
+
+    @Override
+    public final void handleMessage(Message msg) {
+        switch (msg.what) {
+        case BOUNDS_MESSAGE_ID:
+            handleImageBounds(msg.arg1, msg.arg2);
+            break;
+        case TILE_MESSAGE_ID:
+            Tile tile = (Tile) msg.obj;
+            handleTileLoaded(tile.region, tile.sampleSize, tile.bitmap);
+            break;
+        case FAILED_MESSAGE_ID:
+            handleTilesFailed();
+            break;
+        }
+    }
+
+    /**
+     * Called before any tiles are delivered, with the dimensions of the full source image. Use
+     * this to set up the zoomable view's content size. The default implementation does nothing.
+     * 
+     * @param width
+     *            the source image width in pixels
+     * @param height
+     *            the source image height in pixels
+     */
+    protected void handleImageBounds(int width, int height) {
+    }
+
+    /**
+     * Called for every tile intersecting the requested region.
+     * 
+     * @param region
+     *            the region of the source image covered by this tile, in source image pixels
+     * @param sampleSize
+     *            the sample size the tile was decoded at; the tile bitmap is region.width() /
+     *            sampleSize pixels wide
+     * @param tile
+     *            the decoded tile
+     */
+    protected abstract void handleTileLoaded(Rect region, int sampleSize, Bitmap tile);
+
+    /**
+     * Called if the source image could not be retrieved, or if region decoding is not supported on
+     * this device. Consider falling back to
+     * {@link RemoteImageLoader#loadScaledImage(String, android.widget.ImageView, int, int)}. The
+     * default implementation does nothing.
+     */
+    protected void handleTilesFailed() {
+    }
+
+    static final class Tile {
+        final Rect region;
+        final int sampleSize;
+        final Bitmap bitmap;
+
+        Tile(Rect region, int sampleSize, Bitmap bitmap) {
+            this.region = region;
+            this.sampleSize = sampleSize;
+            this.bitmap = bitmap;
+        }
+    }
+}
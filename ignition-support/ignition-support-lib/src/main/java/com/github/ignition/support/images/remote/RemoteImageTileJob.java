@@ -0,0 +1,176 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.ignition.support.images.remote;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.os.Message;
+import android.util.Log;
+
+import com.github.ignition.support.cache.ImageCache;
+import com.github.ignition.support.cache.ImageTileCache;
+
+/**
+ * Decodes the tiles of an image that intersect a given region. The source image is taken from the
+ * {@link ImageCache}, and downloaded into it first if it isn't cached yet. Tiles are aligned to a
+ * fixed grid, so that they can be reused from the {@link ImageTileCache} when the visible region
+ * moves.
+ * <p>
+ * The download is left to a prefetch {@link RemoteImageLoaderJob}, which runs this job on its
+ * worker thread once the source image is cached, or has failed to download or been cancelled. To
+ * load the tiles, queue that job, see {@link #getSourceJob()}.
+ * </p>
+ */
+public class RemoteImageTileJob implements Runnable {
+
+    private static final String LOG_TAG = "Ignition/ImageTileLoader";
+
+    /**
+     * The edge length of a decoded tile in pixels.
+     */
+    public static final int TILE_SIZE = 256;
+
+    private String imageUrl;
+    private Rect region;
+    private int sampleSize;
+    private RemoteImageTileHandler handler;
+    private ImageCache imageCache;
+    private ImageTileCache tileCache;
+    private RemoteImageLoaderJob sourceJob;
+
+    public RemoteImageTileJob(String imageUrl, Rect region, int sampleSize,
+            RemoteImageTileHandler handler, ImageCache imageCache, ImageTileCache tileCache,
+            int numRetries, int defaultBufferSize) {
+        this.imageUrl = imageUrl;
+        this.region = new Rect(region);
+        this.sampleSize = Math.max(1, sampleSize);
+        this.handler = handler;
+        this.imageCache = imageCache;
+        this.tileCache = tileCache;
+        // tiles are decoded from the cache, so the source image only needs to get in there
+        this.sourceJob = new RemoteImageLoaderJob(imageUrl, null, imageCache, numRetries,
+                defaultBufferSize);
+        sourceJob.setPrefetch(false);
+        sourceJob.setOnFinished(this);
+    }
+
+    /**
+     * @return the job that puts the source image into the image cache, and then runs this job
+     */
+    public RemoteImageLoaderJob getSourceJob() {
+        return sourceJob;
+    }
+
+    /**
+     * @param transport
+     *            the transport to download the source image with
+     */
+    public void setTransport(RemoteImageTransport transport) {
+        sourceJob.setTransport(transport);
+    }
+
+    @Override
+    public void run() {
+        if (sourceJob.isCancelled()) {
+            // e.g. taken out of the queue by a shutdown, so the handler would wait forever
+            notifyFailed();
+            return;
+        }
+        ImageRegionDecoder decoder = null;
+        try {
+            decoder = openDecoder();
+            if (decoder == null) {
+                notifyFailed();
+                return;
+            }
+
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            Message.obtain(handler, RemoteImageTileHandler.BOUNDS_MESSAGE_ID, width, height)
+                    .sendToTarget();
+
+            if (!region.intersect(0, 0, width, height)) {
+                return;
+            }
+
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inSampleSize = sampleSize;
+
+            int tileSourceSize = TILE_SIZE * sampleSize;
+            int firstTop = (region.top / tileSourceSize) * tileSourceSize;
+            int firstLeft = (region.left / tileSourceSize) * tileSourceSize;
+            for (int top = firstTop; top < region.bottom; top += tileSourceSize) {
+                for (int left = firstLeft; left < region.right; left += tileSourceSize) {
+                    Rect tileRegion = new Rect(left, top, Math.min(left + tileSourceSize, width),
+                            Math.min(top + tileSourceSize, height));
+                    Bitmap tile = tileCache.get(imageUrl, sampleSize, tileRegion);
+                    if (tile == null) {
+                        tile = decoder.decodeRegion(tileRegion, opts);
+                        if (tile == null) {
+                            continue;
+                        }
+                        tileCache.put(imageUrl, sampleSize, tileRegion, tile);
+                    }
+                    Message.obtain(handler, RemoteImageTileHandler.TILE_MESSAGE_ID,
+                            new RemoteImageTileHandler.Tile(tileRegion, sampleSize, tile))
+                            .sendToTarget();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "failed decoding tiles of " + imageUrl + ": " + e.getMessage());
+            notifyFailed();
+        } catch (RuntimeException e) {
+            // the region decoder is accessed reflectively, and throws e.g. IllegalStateException
+            // or IllegalArgumentException for images it can't handle
+            Log.w(LOG_TAG, "failed decoding tiles of " + imageUrl + ": " + e);
+            notifyFailed();
+        } catch (OutOfMemoryError e) {
+            Log.w(LOG_TAG, "out of memory while decoding tiles of " + imageUrl);
+            notifyFailed();
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    /**
+     * Opens a region decoder over the cached source image. Prefers the disk cache file, so the
+     * encoded image doesn't have to be held in memory while decoding.
+     *
+     * @return the decoder, or null if the source image couldn't be cached
+     */
+    private ImageRegionDecoder openDecoder() throws IOException {
+        File imageFile = imageCache.getCachedImageFile(imageUrl);
+        if (imageFile != null) {
+            return ImageRegionDecoder.newInstance(imageFile);
+        }
+
+        byte[] imageData = imageCache.get(imageUrl);
+        if (imageData == null) {
+            return null;
+        }
+        return ImageRegionDecoder.newInstance(imageData);
+    }
+
+    private void notifyFailed() {
+        handler.sendEmptyMessage(RemoteImageTileHandler.FAILED_MESSAGE_ID);
+    }
+}
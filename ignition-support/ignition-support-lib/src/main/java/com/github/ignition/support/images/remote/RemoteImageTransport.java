@@ -0,0 +1,411 @@
+/* Copyright (c) 2009-2011 Matthias Kaeppler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.ignition.support.images.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import com.github.ignition.support.http.IgnitedHttp;
+
+/**
+ * Downloads images over a pool of persistent HTTP connections, so that loading many images from
+ * the same host doesn't pay for a TCP (and TLS) handshake per image. The number of connections
+ * opened to each host can be limited, and the transport keeps count of how many requests were
+ * served over a reused connection.
+ * <p>
+ * HTTPS connections always verify the server certificate with the platform's
+ * {@link SSLSocketFactory}. Note that on Android 1.6 and older, this may fail for some servers
+ * whose certificates are valid, see http://code.google.com/p/android/issues/detail?id=1946.
+ * </p>
+ * <p>
+ * This uses its own connection pool rather than the one of {@link IgnitedHttp}, so that image
+ * downloads can't starve other requests of connections, and vice versa.
+ * </p>
+ */
+public class RemoteImageTransport {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 8;
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 5000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 5000;
+
+    private static RemoteImageTransport defaultTransport;
+
+    private final DefaultHttpClient httpClient;
+    private final ThreadSafeClientConnManager connectionManager;
+    private final ConnPerRouteBean connectionsPerRoute;
+
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numConnectionsOpened = new AtomicLong();
+
+    public RemoteImageTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_TOTAL_CONNECTIONS);
+    }
+
+    /**
+     * @param maxConnectionsPerHost
+     *            how many connections may be open to a single host at once
+     * @param maxTotalConnections
+     *            how many connections may be open at once in total
+     */
+    public RemoteImageTransport(int maxConnectionsPerHost, int maxTotalConnections) {
+        BasicHttpParams httpParams = new BasicHttpParams();
+
+        connectionsPerRoute = new ConnPerRouteBean(maxConnectionsPerHost);
+        ConnManagerParams.setMaxConnectionsPerRoute(httpParams, connectionsPerRoute);
+        ConnManagerParams.setMaxTotalConnections(httpParams, maxTotalConnections);
+        ConnManagerParams.setTimeout(httpParams, DEFAULT_CONNECTION_TIMEOUT);
+
+        HttpConnectionParams.setConnectionTimeout(httpParams, DEFAULT_CONNECTION_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(httpParams, DEFAULT_SOCKET_TIMEOUT);
+        HttpConnectionParams.setSocketBufferSize(httpParams, 16 * 1024);
+        HttpProtocolParams.setVersion(httpParams, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setUserAgent(httpParams, IgnitedHttp.DEFAULT_HTTP_USER_AGENT);
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", new CountingSocketFactory(
+                PlainSocketFactory.getSocketFactory()), 80));
+        // unlike IgnitedHttp, this doesn't fall back to trusting all certificates on Android 1.6
+        // and older; images served over HTTPS are verified like any other request
+        schemeRegistry.register(new Scheme("https", new CountingLayeredSocketFactory(
+                SSLSocketFactory.getSocketFactory()), 443));
+
+        connectionManager = new ThreadSafeClientConnManager(httpParams, schemeRegistry);
+        httpClient = new DefaultHttpClient(connectionManager, httpParams);
+        // retries are up to the loader job, which backs off between attempts
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+    }
+
+    /**
+     * @return the transport used by image loaders that haven't been given one explicitly
+     */
+    public static synchronized RemoteImageTransport getDefault() {
+        if (defaultTransport == null) {
+            defaultTransport = new RemoteImageTransport();
+        }
+        return defaultTransport;
+    }
+
+    /**
+     * @param maxConnections
+     *            how many connections may be open to a single host at once, unless overridden for
+     *            that host via {@link #setMaxConnectionsForHost(String, int)}
+     */
+    public void setMaxConnectionsPerHost(int maxConnections) {
+        connectionsPerRoute.setDefaultMaxPerRoute(maxConnections);
+    }
+
+    /**
+     * Limits the number of connections to the given host, e.g. to be nice to an image server, or
+     * to allow more parallel downloads from a CDN.
+     * 
+     * @param hostName
+     *            the host name, as in the image URLs
+     * @param maxConnections
+     *            how many connections may be open to the host at once
+     */
+    public void setMaxConnectionsForHost(String hostName, int maxConnections) {
+        // routes are keyed by the port as given in the URL, which is -1 if there's none
+        int[] httpPorts = { -1, 80 };
+        int[] httpsPorts = { -1, 443 };
+        for (int port : httpPorts) {
+            connectionsPerRoute.setMaxForRoute(new HttpRoute(new HttpHost(hostName, port, "http")),
+                    maxConnections);
+        }
+        for (int port : httpsPorts) {
+            connectionsPerRoute.setMaxForRoute(new HttpRoute(
+                    new HttpHost(hostName, port, "https"), null, true), maxConnections);
+        }
+    }
+
+    /**
+     * @return how many connections may be open at once over the given route
+     */
+    int getMaxConnectionsForRoute(HttpRoute route) {
+        return connectionsPerRoute.getMaxForRoute(route);
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        HttpParams httpParams = httpClient.getParams();
+        ConnManagerParams.setTimeout(httpParams, connectionTimeout);
+        HttpConnectionParams.setConnectionTimeout(httpParams, connectionTimeout);
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        HttpConnectionParams.setSoTimeout(httpClient.getParams(), socketTimeout);
+    }
+
+    /**
+     * Sends a GET request for the given image.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @return the download, which must be either finished or aborted
+     * @throws IOException
+     *             if the request failed, or an {@link ImageDownloadException} if the server didn't
+     *             respond with 200 OK
+     */
+    public Download open(String imageUrl) throws IOException {
+        return open(imageUrl, null);
+    }
+
+    /**
+     * Sends a GET request for the given image, which is conditional if validators are given: if
+     * the image hasn't changed, the server responds with 304 Not Modified and no body, which is
+     * reported by {@link Download#isNotModified()}.
+     * 
+     * @param imageUrl
+     *            the image URL
+     * @param validators
+     *            the validators of a cached copy of the image, or null
+     * @return the download, which must be either finished or aborted
+     * @throws IOException
+     *             if the request failed, or an {@link ImageDownloadException} if the server didn't
+     *             respond with 200 OK (or 304 Not Modified for a conditional request)
+     */
+    public Download open(String imageUrl, ImageValidators validators) throws IOException {
+        HttpGet request;
+        try {
+            request = new HttpGet(imageUrl);
+        } catch (IllegalArgumentException e) {
+            throw new ImageDownloadException("invalid image URL: " + imageUrl, 0);
+        }
+        if (validators != null) {
+            if (validators.getETag() != null) {
+                request.addHeader("If-None-Match", validators.getETag());
+            }
+            if (validators.getLastModified() != null) {
+                request.addHeader("If-Modified-Since", validators.getLastModified());
+            }
+        }
+        numRequests.incrementAndGet();
+
+        HttpResponse response;
+        try {
+            response = httpClient.execute(request);
+        } catch (IOException e) {
+            request.abort();
+            throw e;
+        }
+
+        Download download = new Download(request, response.getEntity());
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED && validators != null) {
+            download.notModified = true;
+            download.finish();
+            return download;
+        }
+        download.validators = getValidators(response);
+        if (statusCode != HttpStatus.SC_OK || download.entity == null) {
+            // give the connection back to the pool
+            download.finish();
+            throw new ImageDownloadException("unexpected response for " + imageUrl + ": "
+                    + response.getStatusLine(), statusCode);
+        }
+        return download;
+    }
+
+    private static ImageValidators getValidators(HttpResponse response) {
+        Header eTag = response.getFirstHeader("ETag");
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        if (eTag == null && lastModified == null) {
+            return null;
+        }
+        return new ImageValidators(eTag != null ? eTag.getValue() : null,
+                lastModified != null ? lastModified.getValue() : null);
+    }
+
+    /**
+     * @return the number of requests sent over this transport
+     */
+    public long getNumRequests() {
+        return numRequests.get();
+    }
+
+    /**
+     * @return the number of connections this transport had to open
+     */
+    public long getNumConnectionsOpened() {
+        return numConnectionsOpened.get();
+    }
+
+    /**
+     * @return the number of requests that were served over an already open connection
+     */
+    public long getNumConnectionsReused() {
+        return Math.max(0, numRequests.get() - numConnectionsOpened.get());
+    }
+
+    /**
+     * Closes pooled connections that have been idle for the given time. Servers will close idle
+     * connections eventually anyway, but that only shows when trying to reuse them.
+     */
+    public void closeIdleConnections(long idleTimeMillis) {
+        connectionManager.closeIdleConnections(idleTimeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes all connections. The transport can't be used anymore afterwards.
+     */
+    public void shutdown() {
+        connectionManager.shutdown();
+    }
+
+    /**
+     * An image download in progress. Either {@link #finish()} or {@link #abort()} must be called
+     * when done with it, to release its connection.
+     */
+    public static final class Download {
+
+        private final HttpGet request;
+        private final HttpEntity entity;
+        private boolean notModified;
+        private ImageValidators validators;
+
+        private Download(HttpGet request, HttpEntity entity) {
+            this.request = request;
+            this.entity = entity;
+        }
+
+        /**
+         * @return true if this was a conditional request, and the server responded that the image
+         *         hasn't changed; there is no image data to read then
+         */
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+        /**
+         * @return the validators the server sent along with the image, or null if it sent none
+         */
+        public ImageValidators getValidators() {
+            return validators;
+        }
+
+        /**
+         * @return the size of the image in bytes, or a negative number if the server didn't tell
+         */
+        public long getContentLength() {
+            return entity.getContentLength();
+        }
+
+        public InputStream getInputStream() throws IOException {
+            return entity.getContent();
+        }
+
+        /**
+         * Releases the connection back to the pool, so it can be reused for the next image. Any
+         * data that hasn't been read yet is skipped.
+         */
+        public void finish() {
+            try {
+                if (entity != null) {
+                    entity.consumeContent();
+                }
+            } catch (IOException e) {
+                // the connection is broken anyway, make sure it's not reused
+                request.abort();
+            }
+        }
+
+        /**
+         * Aborts the download and closes its connection. This may be called from any thread, and
+         * unblocks a thread waiting for data.
+         */
+        public void abort() {
+            request.abort();
+        }
+    }
+
+    /**
+     * Counts the connections that are being opened, so we can tell how often connections were
+     * reused.
+     */
+    private class CountingSocketFactory implements SocketFactory {
+
+        private final SocketFactory delegate;
+
+        CountingSocketFactory(SocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress,
+                int localPort, HttpParams params) throws IOException, UnknownHostException,
+                ConnectTimeoutException {
+            numConnectionsOpened.incrementAndGet();
+            return delegate.connectSocket(sock, host, port, localAddress, localPort, params);
+        }
+
+        @Override
+        public boolean isSecure(Socket sock) throws IllegalArgumentException {
+            return delegate.isSecure(sock);
+        }
+    }
+
+    private class CountingLayeredSocketFactory extends CountingSocketFactory implements
+            LayeredSocketFactory {
+
+        private final LayeredSocketFactory delegate;
+
+        CountingLayeredSocketFactory(LayeredSocketFactory delegate) {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+                throws IOException, UnknownHostException {
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+    }
+}